@@ -0,0 +1,71 @@
+package com.github.rutledgepaulv.injectingstreams.benchmarks;
+
+import com.github.rutledgepaulv.injectingstreams.CoalescingPolicy;
+import com.github.rutledgepaulv.injectingstreams.InjectionSpec;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a page in small chunks to a sink that charges a fixed cost per call, standing in for
+ * an unbuffered socket or a compressor, with and without coalescing.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CoalescingBenchmark {
+
+    private static final InjectionSpec PLAIN = InjectionSpec.before("</div>", "<!-- injected -->");
+
+    @Param({"none", "EACH_WRITE", "WHEN_FULL"})
+    public String coalescing;
+
+    @Param({"64", "512"})
+    public int chunk;
+
+    private byte[] body;
+    private InjectionSpec spec;
+
+    @Setup
+    public void setup() {
+        body = DelimiterMatchingBenchmark.html(256 * 1024);
+        spec = "none".equals(coalescing) ? PLAIN : PLAIN.coalescing(8192, CoalescingPolicy.valueOf(coalescing));
+    }
+
+    @Benchmark
+    public long write() throws IOException {
+        ExpensiveSink sink = new ExpensiveSink();
+        try (OutputStream out = spec.wrap(sink)) {
+            for (int i = 0; i < body.length; i += chunk) {
+                out.write(body, i, Math.min(chunk, body.length - i));
+            }
+        }
+        return sink.calls;
+    }
+
+    /**
+     * Charges roughly the cost of a system call for every write.
+     */
+    private static final class ExpensiveSink extends OutputStream {
+        private long calls;
+
+        @Override
+        public void write(int b) {
+            calls++;
+            Blackhole.consumeCPU(200);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            calls++;
+            Blackhole.consumeCPU(200);
+        }
+    }
+
+}
@@ -0,0 +1,148 @@
+package com.github.rutledgepaulv.injectingstreams.benchmarks;
+
+import com.github.rutledgepaulv.injectingstreams.InjectionSpec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Measures many threads writing log lines to one shared injecting stream, guarded by a
+ * {@code synchronized} wrapper or as a {@code ConcurrentInjectingOutputStream}. With the delimiter
+ * in the first line every later write takes the lock free path of the concurrent stream, without
+ * it every write is scanned under the lock by both.
+ * <p>
+ * Virtual threads need JDK 21 or later, run with {@code -p kind=platform} on older ones.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConcurrentWriteBenchmark {
+
+    private static final int LINES = 10_000;
+    private static final InjectionSpec SPEC = InjectionSpec.before("event: start", "event: hello\n\n");
+
+    @Param({"1", "2", "4", "8", "16", "32"})
+    public int threads;
+
+    @Param({"platform", "virtual"})
+    public String kind;
+
+    @Param({"synchronized", "concurrent"})
+    public String guard;
+
+    /**
+     * Whether the delimiter is {@code found} in the first line or {@code absent}.
+     */
+    @Param({"found", "absent"})
+    public String delimiter;
+
+    private ExecutorService executor;
+    private byte[] first;
+    private byte[][] lines;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        if ("virtual".equals(kind)) {
+            executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } else {
+            executor = Executors.newFixedThreadPool(threads);
+        }
+        first = ("found".equals(delimiter) ? "event: start\n\n" : "event: begin\n\n").getBytes(StandardCharsets.UTF_8);
+        lines = new byte[threads][];
+        for (int t = 0; t < threads; t++) {
+            lines[t] = ("data: {\"thread\": " + t + ", \"message\": \"the quick brown fox jumps over the lazy dog\"}\n\n")
+                    .getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(LINES)
+    public long write() throws Exception {
+        CountingOutputStream sink = new CountingOutputStream();
+        OutputStream out = "concurrent".equals(guard) ? SPEC.wrapConcurrent(sink) : new SynchronizedOutputStream(SPEC.wrap(sink));
+        out.write(first);
+        List<Future<?>> futures = new ArrayList<>(threads);
+        for (int t = 0; t < threads; t++) {
+            byte[] line = lines[t];
+            int count = LINES / threads + (t < LINES % threads ? 1 : 0);
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < count; i++) {
+                    out.write(line);
+                }
+                return null;
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        out.close();
+        return sink.count.sum();
+    }
+
+    /**
+     * Guards every call with the stream's monitor, the obvious way to share a stream.
+     */
+    private static final class SynchronizedOutputStream extends OutputStream {
+
+        private final OutputStream out;
+
+        private SynchronizedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public synchronized void write(int b) throws IOException {
+            out.write(b);
+        }
+
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public synchronized void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * A sink that is safe for concurrent use without becoming the point of contention itself.
+     */
+    private static final class CountingOutputStream extends OutputStream {
+
+        private final LongAdder count = new LongAdder();
+
+        @Override
+        public void write(int b) {
+            count.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            count.add(len);
+        }
+    }
+}
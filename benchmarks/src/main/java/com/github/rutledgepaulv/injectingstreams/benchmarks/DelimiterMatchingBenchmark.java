@@ -0,0 +1,77 @@
+package com.github.rutledgepaulv.injectingstreams.benchmarks;
+
+import com.github.rutledgepaulv.injectingstreams.InjectingStreams;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of the delimiter search for a large body written in a single call,
+ * both for typical markup and for a self-overlapping worst case.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DelimiterMatchingBenchmark {
+
+    private static final int SIZE = 1 << 20;
+
+    @Param({"html", "overlapping"})
+    public String input;
+
+    private byte[] body;
+    private String delimiter;
+    private byte[] injection;
+
+    @Setup
+    public void setup() {
+        if ("html".equals(input)) {
+            delimiter = "</body>";
+            body = html(SIZE);
+        } else {
+            delimiter = "aaaaaaab";
+            body = new byte[SIZE];
+            Arrays.fill(body, (byte) 'a');
+            body[SIZE - 1] = 'b';
+        }
+        injection = "<script>init()</script>".getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] html(int size) {
+        String row = "<div class=\"row\"><span>lorem ipsum dolor sit amet</span></div>\n";
+        StringBuilder builder = new StringBuilder(size);
+        builder.append("<html><head><title>benchmark</title></head><body>\n");
+        while (builder.length() < size - 16) {
+            builder.append(row);
+        }
+        builder.setLength(size - 16);
+        builder.append("</body></html>\n\n");
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public long before() throws IOException {
+        DiscardingOutputStream sink = new DiscardingOutputStream();
+        try (OutputStream out = InjectingStreams.injectBeforeOutput(sink, delimiter, injection)) {
+            out.write(body);
+        }
+        return sink.count();
+    }
+
+    @Benchmark
+    public long after() throws IOException {
+        DiscardingOutputStream sink = new DiscardingOutputStream();
+        try (OutputStream out = InjectingStreams.injectAfterOutput(sink, delimiter, injection)) {
+            out.write(body);
+        }
+        return sink.count();
+    }
+
+}
@@ -0,0 +1,26 @@
+package com.github.rutledgepaulv.injectingstreams.benchmarks;
+
+import java.io.OutputStream;
+
+/**
+ * A sink that counts and discards everything written to it.
+ */
+public final class DiscardingOutputStream extends OutputStream {
+
+    private long count;
+
+    @Override
+    public void write(int b) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        count += len;
+    }
+
+    public long count() {
+        return count;
+    }
+
+}
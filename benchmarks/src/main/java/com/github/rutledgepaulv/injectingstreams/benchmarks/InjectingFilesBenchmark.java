@@ -0,0 +1,81 @@
+package com.github.rutledgepaulv.injectingstreams.benchmarks;
+
+import com.github.rutledgepaulv.injectingstreams.InjectingFiles;
+import com.github.rutledgepaulv.injectingstreams.InjectingStreams;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures how injecting into a large file scales with the parallelism of the search, against
+ * copying the file through an injecting stream with a 4 KiB copy loop. The delimiter sits at the
+ * very end of a 256 MiB file so that the whole file has to be searched.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class InjectingFilesBenchmark {
+
+    private static final int SIZE = 256 << 20;
+    private static final byte[] DELIMITER = "</export>".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] INJECTION = "<footer/>".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"1", "2", "4", "8"})
+    public int parallelism;
+
+    private Path src;
+    private Path dst;
+    private ForkJoinPool pool;
+
+    @Setup
+    public void setup() throws IOException {
+        src = Files.createTempFile("benchmark", ".xml");
+        dst = Files.createTempFile("benchmark", ".xml");
+        try (OutputStream out = Files.newOutputStream(src)) {
+            byte[] chunk = DelimiterMatchingBenchmark.html(1 << 20);
+            for (int i = 0; i < SIZE / chunk.length; i++) {
+                out.write(chunk);
+            }
+            out.write(DELIMITER);
+        }
+        pool = new ForkJoinPool(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        pool.shutdown();
+        Files.delete(src);
+        Files.delete(dst);
+    }
+
+    @Benchmark
+    public long mapped() throws IOException {
+        return InjectingFiles.injectAfter(src, dst, DELIMITER, INJECTION, pool);
+    }
+
+    @Benchmark
+    public long streamed() throws IOException {
+        long copied = 0;
+        try (InputStream in = Files.newInputStream(src);
+             OutputStream out = InjectingStreams.injectAfterOutput(Files.newOutputStream(dst), DELIMITER, INJECTION)) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while (-1 != (n = in.read(buffer))) {
+                out.write(buffer, 0, n);
+                copied += n;
+            }
+        }
+        return copied;
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.github.rutledgepaulv.injectingstreams.benchmarks;
+
+import com.github.rutledgepaulv.injectingstreams.InjectingStreams;
+import com.github.rutledgepaulv.injectingstreams.InjectionRules;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares three stacked single-delimiter streams against one set of rules doing the same work.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InjectionRulesBenchmark {
+
+    private byte[] body;
+    private InjectionRules rules;
+
+    @Setup
+    public void setup() {
+        body = DelimiterMatchingBenchmark.html(1 << 20);
+        rules = InjectingStreams.rules()
+                .after("<head>", "<script>a()</script>")
+                .before("</head>", "<script>b()</script>")
+                .before("</body>", "<script>c()</script>");
+    }
+
+    @Benchmark
+    public long stacked() throws IOException {
+        DiscardingOutputStream sink = new DiscardingOutputStream();
+        OutputStream out = InjectingStreams.injectBeforeOutput(sink, "</body>", "<script>c()</script>");
+        out = InjectingStreams.injectBeforeOutput(out, "</head>", "<script>b()</script>");
+        out = InjectingStreams.injectAfterOutput(out, "<head>", "<script>a()</script>");
+        try (OutputStream stream = out) {
+            stream.write(body);
+        }
+        return sink.count();
+    }
+
+    @Benchmark
+    public long rules() throws IOException {
+        DiscardingOutputStream sink = new DiscardingOutputStream();
+        try (OutputStream out = rules.wrap(sink)) {
+            out.write(body);
+        }
+        return sink.count();
+    }
+
+}
@@ -0,0 +1,60 @@
+package com.github.rutledgepaulv.injectingstreams.benchmarks;
+
+import com.github.rutledgepaulv.injectingstreams.InjectingOutputStream;
+import com.github.rutledgepaulv.injectingstreams.InjectingStreams;
+import com.github.rutledgepaulv.injectingstreams.InjectionSpec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per request cost of creating a stream for a small response. Run with
+ * {@code -prof gc} to see the allocation rate of each approach.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InjectionSpecBenchmark {
+
+    private static final String DELIMITER = "</body>";
+    private static final String SNIPPET = "<script src='/static/config.js'></script>";
+    private static final InjectionSpec SPEC = InjectionSpec.before(DELIMITER, SNIPPET);
+
+    private byte[] body;
+    private DiscardingOutputStream sink;
+    private InjectingOutputStream pooled;
+
+    @Setup
+    public void setup() {
+        body = DelimiterMatchingBenchmark.html(4096);
+        sink = new DiscardingOutputStream();
+        pooled = SPEC.wrap(sink);
+    }
+
+    @Benchmark
+    public long perRequestFactory() throws IOException {
+        OutputStream out = InjectingStreams.injectBeforeOutput(sink, DELIMITER, SNIPPET);
+        out.write(body);
+        return sink.count();
+    }
+
+    @Benchmark
+    public long precompiledSpec() throws IOException {
+        OutputStream out = SPEC.wrap(sink);
+        out.write(body);
+        return sink.count();
+    }
+
+    @Benchmark
+    public long pooledReset() throws IOException {
+        pooled.reset(sink);
+        pooled.write(body);
+        return sink.count();
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.github.rutledgepaulv.injectingstreams.benchmarks;
+
+import com.github.rutledgepaulv.injectingstreams.Delimiter;
+import com.github.rutledgepaulv.injectingstreams.InjectionSpec;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of pattern delimiters with the literal delimiter they generalize,
+ * for a large body of markup written in a single call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PatternDelimiterBenchmark {
+
+    private static final int SIZE = 1 << 20;
+
+    @Param({"literal", "ignoreCase", "whitespace", "class"})
+    public String delimiter;
+
+    private byte[] body;
+    private InjectionSpec before;
+    private InjectionSpec after;
+
+    @Setup
+    public void setup() {
+        Delimiter compiled;
+        switch (delimiter) {
+            case "literal":
+                compiled = Delimiter.literal("</body>");
+                break;
+            case "ignoreCase":
+                compiled = Delimiter.ignoreCase("</BODY>");
+                break;
+            case "whitespace":
+                compiled = Delimiter.pattern("</body\\s*>");
+                break;
+            default:
+                compiled = Delimiter.pattern("</body[^>]*>");
+        }
+        body = DelimiterMatchingBenchmark.html(SIZE);
+        before = InjectionSpec.before(compiled, "<script>init()</script>");
+        after = InjectionSpec.after(compiled, "<script>init()</script>");
+    }
+
+    @Benchmark
+    public long before() throws IOException {
+        DiscardingOutputStream sink = new DiscardingOutputStream();
+        try (OutputStream out = before.wrap(sink)) {
+            out.write(body);
+        }
+        return sink.count();
+    }
+
+    @Benchmark
+    public long after() throws IOException {
+        DiscardingOutputStream sink = new DiscardingOutputStream();
+        try (OutputStream out = after.wrap(sink)) {
+            out.write(body);
+        }
+        return sink.count();
+    }
+
+}
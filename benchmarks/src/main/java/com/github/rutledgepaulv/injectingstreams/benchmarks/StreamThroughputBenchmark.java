@@ -0,0 +1,155 @@
+package com.github.rutledgepaulv.injectingstreams.benchmarks;
+
+import com.github.rutledgepaulv.injectingstreams.InjectingStreams;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the throughput of both injecting output streams against two baselines, a plain
+ * {@link FilterOutputStream} and buffering the whole body for {@link String#replace}, across
+ * write sizes, delimiter lengths and match positions. A chunk size of 1 writes with
+ * {@code write(int)}, anything larger with {@code write(byte[], int, int)}.
+ * <p>
+ * Every invocation writes a body of 256 KiB and the {@code bytes} counter reports the bytes
+ * written per second. Run with {@code -prof gc} to see the allocation rate of each variant and
+ * narrow the matrix with {@code -p}, for example {@code -p chunkSize=8192 -p position=absent}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreamThroughputBenchmark {
+
+    private static final int SIZE = 1 << 18;
+
+    @Param({"1", "16", "512", "8192"})
+    public int chunkSize;
+
+    @Param({"1", "8", "64"})
+    public int delimiterLength;
+
+    /**
+     * Where the delimiter occurs in markup, or {@code overlapping} for a body of {@code a} that
+     * keeps a delimiter of {@code aa...ab} partially matched without ever finding it.
+     */
+    @Param({"start", "middle", "absent", "overlapping"})
+    public String position;
+
+    private byte[] body;
+    private byte[] delimiter;
+    private byte[] injection;
+    private String delimiterText;
+    private String replacement;
+
+    /**
+     * Reports the bytes written per second next to the invocations per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Bytes {
+
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void clear() {
+            bytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() {
+        if ("overlapping".equals(position)) {
+            body = new byte[SIZE];
+            Arrays.fill(body, (byte) 'a');
+            delimiter = new byte[delimiterLength];
+            Arrays.fill(delimiter, (byte) 'a');
+            delimiter[delimiterLength - 1] = 'b';
+        } else {
+            // markup never contains a tilde, so the delimiter occurs exactly where it is placed
+            StringBuilder marker = new StringBuilder("~");
+            while (marker.length() < delimiterLength) {
+                marker.append("inject-");
+            }
+            delimiter = marker.substring(0, delimiterLength).getBytes(StandardCharsets.ISO_8859_1);
+            body = DelimiterMatchingBenchmark.html(SIZE);
+            if ("start".equals(position)) {
+                System.arraycopy(delimiter, 0, body, 0, delimiter.length);
+            } else if ("middle".equals(position)) {
+                System.arraycopy(delimiter, 0, body, SIZE / 2, delimiter.length);
+            }
+        }
+        injection = "<script>init()</script>".getBytes(StandardCharsets.ISO_8859_1);
+        delimiterText = new String(delimiter, StandardCharsets.ISO_8859_1);
+        replacement = new String(injection, StandardCharsets.ISO_8859_1) + delimiterText;
+    }
+
+    @Benchmark
+    public long pre(Bytes bytes) throws IOException {
+        DiscardingOutputStream sink = new DiscardingOutputStream();
+        try (OutputStream out = InjectingStreams.injectBeforeOutput(sink, delimiter, injection)) {
+            write(out);
+        }
+        bytes.bytes += body.length;
+        return sink.count();
+    }
+
+    @Benchmark
+    public long post(Bytes bytes) throws IOException {
+        DiscardingOutputStream sink = new DiscardingOutputStream();
+        try (OutputStream out = InjectingStreams.injectAfterOutput(sink, delimiter, injection)) {
+            write(out);
+        }
+        bytes.bytes += body.length;
+        return sink.count();
+    }
+
+    /**
+     * The cost of merely interposing a stream, which passes on every byte on its own.
+     */
+    @Benchmark
+    public long filterOutputStream(Bytes bytes) throws IOException {
+        DiscardingOutputStream sink = new DiscardingOutputStream();
+        try (OutputStream out = new FilterOutputStream(sink)) {
+            write(out);
+        }
+        bytes.bytes += body.length;
+        return sink.count();
+    }
+
+    /**
+     * Buffers the whole body and injects with {@link String#replace}, which is what the
+     * injecting streams spare their users.
+     */
+    @Benchmark
+    public long stringReplace(Bytes bytes) throws IOException {
+        DiscardingOutputStream sink = new DiscardingOutputStream();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        write(buffer);
+        String replaced = buffer.toString(StandardCharsets.ISO_8859_1.name()).replace(delimiterText, replacement);
+        sink.write(replaced.getBytes(StandardCharsets.ISO_8859_1));
+        bytes.bytes += body.length;
+        return sink.count();
+    }
+
+    private void write(OutputStream out) throws IOException {
+        if (chunkSize == 1) {
+            for (byte b : body) {
+                out.write(b);
+            }
+        } else {
+            for (int off = 0; off < body.length; off += chunkSize) {
+                out.write(body, off, Math.min(chunkSize, body.length - off));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,177 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * Shared plumbing for the channels that inject content next to the first occurrence of a
+ * delimiter. Buffers handed to {@link #write(ByteBuffer)} are scanned and forwarded in place,
+ * heap or direct, without copying them.
+ * <p>
+ * Every write consumes the whole buffer, so the sink must be in blocking mode.
+ * <p>
+ * Assumes a single writer (no synchronization)
+ */
+abstract class AbstractInjectingChannel implements WritableByteChannel {
+
+    final WritableByteChannel out;
+    final DelimiterMatcher matcher;
+    private final ByteBuffer payload;
+    private final ReadableByteChannel source;
+    private ByteBuffer delimiter;
+    private boolean open = true;
+    boolean injected = false;
+
+    AbstractInjectingChannel(WritableByteChannel out, byte[] delimiter, ByteBuffer payload) {
+        this(out, delimiter, payload.duplicate(), null);
+    }
+
+    AbstractInjectingChannel(WritableByteChannel out, byte[] delimiter, ReadableByteChannel source) {
+        this(out, delimiter, null, source);
+    }
+
+    private AbstractInjectingChannel(WritableByteChannel out, byte[] delimiter, ByteBuffer payload, ReadableByteChannel source) {
+        if (out instanceof SelectableChannel && !((SelectableChannel) out).isBlocking()) {
+            throw new IllegalArgumentException("The sink channel must be in blocking mode.");
+        }
+        this.out = out;
+        this.matcher = new DelimiterMatcher(delimiter);
+        this.payload = payload;
+        this.source = source;
+    }
+
+    /**
+     * Writes the injection. A file is handed to {@link FileChannel#transferTo}, which moves it
+     * without copying through user space when the sink is a file or a socket.
+     */
+    final void inject() throws IOException {
+        try {
+            if (payload != null) {
+                writeFully(payload);
+            } else if (source instanceof FileChannel) {
+                FileChannel file = (FileChannel) source;
+                long position = file.position();
+                transferFully(file, position, file.size() - position, out);
+                source.close();
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate(4096);
+                while (source.read(buffer) >= 0) {
+                    buffer.flip();
+                    writeFully(buffer);
+                    buffer.clear();
+                }
+                source.close();
+            }
+        } finally {
+            injected = true;
+        }
+    }
+
+    /**
+     * Moves {@code count} bytes of {@code file} starting at {@code position} to {@code out} with
+     * {@link FileChannel#transferTo}. Should that stop making progress, which it may do for
+     * some sinks rather than failing, the rest is read and written through a buffer instead.
+     *
+     * @return the number of bytes moved, fewer than {@code count} only if the file ends earlier.
+     */
+    static long transferFully(FileChannel file, long position, long count, WritableByteChannel out) throws IOException {
+        long moved = 0;
+        while (moved < count) {
+            long n = file.transferTo(position + moved, count - moved, out);
+            if (n <= 0) {
+                break;
+            }
+            moved += n;
+        }
+        ByteBuffer buffer = null;
+        while (moved < count) {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate((int) Math.min(8192, count - moved));
+            }
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), count - moved));
+            int n = file.read(buffer, position + moved);
+            if (n < 0) {
+                break;
+            }
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+            moved += n;
+        }
+        return moved;
+    }
+
+    /**
+     * @return the sink once every later write passes straight through to it, otherwise null.
+     */
+    final WritableByteChannel passthrough() {
+        return injected ? out : null;
+    }
+
+    final void writeFully(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            out.write(buffer);
+        }
+    }
+
+    /**
+     * Writes the bytes of {@code buffer} between two absolute positions and leaves its position
+     * at {@code to}.
+     */
+    final void writeRange(ByteBuffer buffer, int from, int to) throws IOException {
+        if (from < to) {
+            int limit = buffer.limit();
+            buffer.limit(to).position(from);
+            try {
+                writeFully(buffer);
+            } finally {
+                buffer.limit(limit);
+            }
+        }
+        buffer.position(to);
+    }
+
+    /**
+     * Writes the first {@code length} bytes of the delimiter.
+     */
+    final void writeDelimiter(int length) throws IOException {
+        if (delimiter == null) {
+            delimiter = ByteBuffer.wrap(matcher.delimiter()).asReadOnlyBuffer();
+        }
+        delimiter.limit(length).position(0);
+        writeFully(delimiter);
+    }
+
+    final void ensureOpen() throws ClosedChannelException {
+        if (!open) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open && out.isOpen();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (open) {
+            open = false;
+            try {
+                if (source != null) {
+                    source.close();
+                }
+            } finally {
+                out.close();
+            }
+        }
+    }
+}
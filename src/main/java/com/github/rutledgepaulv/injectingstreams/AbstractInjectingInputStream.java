@@ -0,0 +1,202 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * Shared plumbing for the input streams that inject a stream of bytes next to the first
+ * occurrence of a delimiter.
+ * <p>
+ * Subclasses scan directly inside the caller's buffer. Whatever they cannot hand out right
+ * away is served in this order: bytes already released, then the injection, then the bytes
+ * that were read past the injection point. After that every call goes straight to the
+ * underlying stream.
+ * <p>
+ * Assumes a single reader (no synchronization)
+ */
+abstract class AbstractInjectingInputStream extends FilterInputStream {
+
+    private final InputStream injection;
+    private final byte[] single = new byte[1];
+    private boolean injecting = false;
+    private boolean injected = false;
+
+    private byte[] ready;
+    private int readyPos = 0;
+    private int readyLimit = 0;
+
+    private byte[] stash;
+    private int stashPos = 0;
+    private int stashLimit = 0;
+
+    AbstractInjectingInputStream(InputStream in, InputStream injection) {
+        super(in);
+        this.injection = injection;
+    }
+
+    /**
+     * Reads from the underlying stream into {@code b} and scans what was read.
+     *
+     * @return the number of bytes at {@code b[off]} that may be handed to the caller, which may
+     * be zero if everything read has to be held back, or -1 at the end of the stream.
+     */
+    abstract int scan(byte[] b, int off, int len) throws IOException;
+
+    /**
+     * Schedules bytes to be served before anything else.
+     */
+    final void ready(byte[] bytes, int from, int to) {
+        ready = bytes;
+        readyPos = from;
+        readyLimit = to;
+    }
+
+    /**
+     * Schedules the injection, followed by the given bytes that were read past the injection
+     * point. Stops all further scanning.
+     */
+    final void inject(byte[] bytes, int from, int to) {
+        stash = bytes;
+        stashPos = from;
+        stashLimit = to;
+        injecting = true;
+        injected = true;
+    }
+
+    final boolean isScanning() {
+        return !injected;
+    }
+
+    private boolean isPassthrough() {
+        return injected && !injecting && readyPos >= readyLimit && stashPos >= stashLimit;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int n = this.read(single, 0, 1);
+        return n < 0 ? -1 : single[0] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b) throws IOException {
+        return this.read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        while (true) {
+            if (readyPos < readyLimit) {
+                int n = Math.min(len, readyLimit - readyPos);
+                System.arraycopy(ready, readyPos, b, off, n);
+                readyPos += n;
+                return n;
+            }
+            if (injecting) {
+                int n = injection.read(b, off, len);
+                if (n > 0) {
+                    return n;
+                } else if (n < 0) {
+                    injecting = false;
+                    injection.close();
+                }
+                continue;
+            }
+            if (stashPos < stashLimit) {
+                int n = Math.min(len, stashLimit - stashPos);
+                System.arraycopy(stash, stashPos, b, off, n);
+                stashPos += n;
+                return n;
+            }
+            if (injected) {
+                return in.read(b, off, len);
+            }
+            int n = scan(b, off, len);
+            if (n != 0) {
+                return n;
+            }
+        }
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        if (isPassthrough()) {
+            return in.skip(n);
+        }
+        byte[] buffer = new byte[(int) Math.min(n, 8192)];
+        long remaining = n;
+        while (remaining > 0) {
+            int read = this.read(buffer, 0, (int) Math.min(remaining, buffer.length));
+            if (read < 0) {
+                break;
+            }
+            remaining -= read;
+        }
+        return n - remaining;
+    }
+
+    @Override
+    public int available() throws IOException {
+        if (readyPos < readyLimit) {
+            return readyLimit - readyPos;
+        } else if (injecting) {
+            return injection.available();
+        } else if (stashPos < stashLimit) {
+            return stashLimit - stashPos;
+        } else if (injected) {
+            return in.available();
+        } else {
+            return 0;
+        }
+    }
+
+    /**
+     * Copies the remainder of this stream to {@code out}. Once the injection has been served the
+     * untouched tail is handed to the underlying stream's own {@link InputStream#transferTo}.
+     */
+    @Override
+    public long transferTo(OutputStream out) throws IOException {
+        long transferred = 0;
+        byte[] buffer = null;
+        while (!isPassthrough()) {
+            if (buffer == null) {
+                buffer = new byte[8192];
+            }
+            int n = this.read(buffer, 0, buffer.length);
+            if (n < 0) {
+                return transferred;
+            }
+            out.write(buffer, 0, n);
+            transferred += n;
+        }
+        return transferred + in.transferTo(out);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            injection.close();
+        } finally {
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+
+/**
+ * Recognizes a sequence of chars with the Knuth-Morris-Pratt algorithm, the char counterpart of
+ * {@link DelimiterMatcher} for the injecting writers.
+ * <p>
+ * A state is the length of the longest prefix of the delimiter that ends with the chars observed
+ * so far, so it doubles as the number of chars a writer holds back. Immutable, may be shared.
+ */
+final class CharMatcher {
+
+    private final char[] delimiter;
+    private final int[] fallback;
+
+    CharMatcher(String delimiter) {
+        if (delimiter.isEmpty()) {
+            throw new IllegalArgumentException("The delimiter must contain at least one char.");
+        }
+        this.delimiter = delimiter.toCharArray();
+        this.fallback = new int[this.delimiter.length];
+        for (int i = 1, k = 0; i < this.delimiter.length; i++) {
+            while (k > 0 && this.delimiter[i] != this.delimiter[k]) {
+                k = fallback[k - 1];
+            }
+            if (this.delimiter[i] == this.delimiter[k]) {
+                k++;
+            }
+            fallback[i] = k;
+        }
+    }
+
+    int length() {
+        return delimiter.length;
+    }
+
+    char[] delimiter() {
+        return delimiter;
+    }
+
+    /**
+     * @return the state after observing {@code c} in {@code state}, which equals
+     * {@link #length()} once the whole delimiter has been observed.
+     */
+    int next(int state, char c) {
+        while (state > 0 && delimiter[state] != c) {
+            state = fallback[state - 1];
+        }
+        return delimiter[state] == c ? state + 1 : state;
+    }
+
+    /**
+     * @return the index of the first occurrence of the first char of the delimiter within
+     * {@code [from, to)}, or {@code to} if there is none.
+     */
+    int skip(char[] chars, int from, int to) {
+        char first = delimiter[0];
+        for (int i = from; i < to; i++) {
+            if (chars[i] == first) {
+                return i;
+            }
+        }
+        return to;
+    }
+}
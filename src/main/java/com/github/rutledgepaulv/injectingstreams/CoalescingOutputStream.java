@@ -0,0 +1,97 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+
+/**
+ * Gathers the fragments an injecting stream produces (released partial matches, the
+ * injection, the delimiter and the remainder of a write) into as few writes to the underlying
+ * stream as possible.
+ * <p>
+ * Unlike {@link java.io.BufferedOutputStream} draining the buffer does not flush the underlying
+ * stream, which matters when it compresses, and the stream can be pointed at a new target.
+ * <p>
+ * Assumes a single writer (no synchronization)
+ */
+final class CoalescingOutputStream extends OutputStream {
+
+    private final byte[] buffer;
+    private final CoalescingPolicy policy;
+    private OutputStream target;
+    private int count = 0;
+
+    CoalescingOutputStream(OutputStream target, int size, CoalescingPolicy policy) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("The buffer size must be positive.");
+        }
+        this.target = target;
+        this.buffer = new byte[size];
+        this.policy = policy;
+    }
+
+    /**
+     * Called once at the end of every write to the injecting stream.
+     */
+    void endOfWrite() throws IOException {
+        if (policy == CoalescingPolicy.EACH_WRITE) {
+            drain();
+        }
+    }
+
+    void drain() throws IOException {
+        if (count > 0) {
+            target.write(buffer, 0, count);
+            count = 0;
+        }
+    }
+
+    /**
+     * Discards anything buffered and switches to a new target.
+     */
+    void reset(OutputStream target) {
+        this.target = target;
+        this.count = 0;
+    }
+
+    OutputStream target() {
+        return target;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (count == buffer.length) {
+            drain();
+        }
+        buffer[count++] = (byte) b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len > buffer.length - count) {
+            drain();
+            if (len >= buffer.length) {
+                // too big to be worth copying
+                target.write(b, off, len);
+                return;
+            }
+        }
+        System.arraycopy(b, off, buffer, count, len);
+        count += len;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        target.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+        } finally {
+            target.close();
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+
+/**
+ * Decides when bytes gathered by an injecting stream's coalescing buffer are passed on to the
+ * underlying stream. Either way the buffer is drained when it fills up and on
+ * {@link java.io.OutputStream#flush()} and {@link java.io.OutputStream#close()}.
+ */
+public enum CoalescingPolicy {
+
+    /**
+     * Drain at the end of every write, so each write to the injecting stream becomes at most
+     * one write to the underlying stream but nothing is delayed past the write that produced it.
+     */
+    EACH_WRITE,
+
+    /**
+     * Drain only when the buffer fills up, gathering small writes into large ones.
+     */
+    WHEN_FULL
+
+}
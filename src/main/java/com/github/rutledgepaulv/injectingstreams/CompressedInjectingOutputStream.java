@@ -0,0 +1,279 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+
+/**
+ * An output stream that accepts a gzip or zlib compressed body, injects into the bytes it
+ * decompresses and compresses them again on their way to the sink.
+ * <p>
+ * Both directions are incremental, so memory stays bounded by a few fixed size buffers however
+ * large the body is. Everything up to the injection is compressed at one level and the remainder
+ * at another, which is typically faster or even {@link Deflater#NO_COMPRESSION} to send the
+ * remainder as stored blocks. Flushing this stream flushes the compressor as well.
+ * <p>
+ * Assumes a single writer (no synchronization)
+ */
+final class CompressedInjectingOutputStream extends OutputStream {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    // the parts of a gzip member, see RFC 1952
+    private static final int HEADER = 0;
+    private static final int EXTRA_LENGTH = 1;
+    private static final int EXTRA = 2;
+    private static final int NAME = 3;
+    private static final int COMMENT = 4;
+    private static final int HEADER_CRC = 5;
+    private static final int BODY = 6;
+    private static final int TRAILER = 7;
+    private static final int END = 8;
+
+    private static final int FHCRC = 2;
+    private static final int FEXTRA = 4;
+    private static final int FNAME = 8;
+    private static final int FCOMMENT = 16;
+
+    private final boolean gzip;
+    private final Inflater inflater;
+    private final Deflater deflater;
+    private final InjectingOutputStream injecting;
+    private final int levelAfterInjection;
+    private final byte[] inflated = new byte[BUFFER_SIZE];
+    private final byte[] fields = new byte[10];
+    private final CRC32 crc = new CRC32();
+    private byte[] single;
+    private int part;
+    private int filled;
+    private int remaining;
+    private int flags;
+    private long size;
+    private boolean started;
+    private boolean recompressing;
+
+    private CompressedInjectingOutputStream(boolean gzip, Function<OutputStream, InjectingOutputStream> wrap,
+                                            DeflaterOutputStream compressor, Deflater deflater, int levelAfterInjection) {
+        this.gzip = gzip;
+        this.inflater = new Inflater(gzip);
+        this.deflater = deflater;
+        this.injecting = wrap.apply(compressor);
+        this.levelAfterInjection = levelAfterInjection;
+        this.part = gzip ? HEADER : BODY;
+    }
+
+    static OutputStream gzip(OutputStream out, Function<OutputStream, InjectingOutputStream> wrap, int level, int levelAfterInjection) throws IOException {
+        Gzip compressor = new Gzip(out, level);
+        return new CompressedInjectingOutputStream(true, wrap, compressor, compressor.deflater(), levelAfterInjection);
+    }
+
+    static OutputStream deflate(OutputStream out, Function<OutputStream, InjectingOutputStream> wrap, int level, int levelAfterInjection) {
+        Zlib compressor = new Zlib(out, level);
+        return new CompressedInjectingOutputStream(false, wrap, compressor, compressor.deflater(), levelAfterInjection);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (single == null) {
+            single = new byte[1];
+        }
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        int end = off + len;
+        started |= len > 0;
+        while (off < end) {
+            switch (part) {
+                case HEADER:
+                    off = fill(bytes, off, end, 10);
+                    if (filled == 10) {
+                        if ((fields[0] & 0xFF) != 0x1F || (fields[1] & 0xFF) != 0x8B) {
+                            throw new ZipException("Not in gzip format");
+                        }
+                        if (fields[2] != Deflater.DEFLATED) {
+                            throw new ZipException("Unsupported compression method");
+                        }
+                        flags = fields[3] & 0xFF;
+                        filled = 0;
+                        part = (flags & FEXTRA) != 0 ? EXTRA_LENGTH : next(EXTRA);
+                    }
+                    break;
+                case EXTRA_LENGTH:
+                    off = fill(bytes, off, end, 2);
+                    if (filled == 2) {
+                        remaining = (fields[0] & 0xFF) | (fields[1] & 0xFF) << 8;
+                        filled = 0;
+                        part = EXTRA;
+                    }
+                    break;
+                case EXTRA:
+                    int skipped = Math.min(remaining, end - off);
+                    off += skipped;
+                    remaining -= skipped;
+                    if (remaining == 0) {
+                        part = next(EXTRA);
+                    }
+                    break;
+                case NAME:
+                case COMMENT:
+                    // both are terminated by a zero byte
+                    int field = part;
+                    while (off < end && part == field) {
+                        if (bytes[off++] == 0) {
+                            part = next(field);
+                        }
+                    }
+                    break;
+                case HEADER_CRC:
+                    off = fill(bytes, off, end, 2);
+                    if (filled == 2) {
+                        filled = 0;
+                        part = BODY;
+                    }
+                    break;
+                case BODY:
+                    off = inflate(bytes, off, end);
+                    break;
+                case TRAILER:
+                    off = fill(bytes, off, end, 8);
+                    if (filled == 8) {
+                        if (int32(0) != (int) crc.getValue() || int32(4) != (int) size) {
+                            throw new ZipException("Corrupt gzip trailer");
+                        }
+                        // another member may follow
+                        filled = 0;
+                        crc.reset();
+                        size = 0;
+                        part = HEADER;
+                    }
+                    break;
+                default:
+                    throw new ZipException("Unexpected bytes after the end of the compressed stream");
+            }
+        }
+    }
+
+    /**
+     * @return the part of the header that follows {@code part}, skipping absent fields.
+     */
+    private int next(int part) {
+        if (part < NAME && (flags & FNAME) != 0) {
+            return NAME;
+        }
+        if (part < COMMENT && (flags & FCOMMENT) != 0) {
+            return COMMENT;
+        }
+        if ((flags & FHCRC) != 0) {
+            return HEADER_CRC;
+        }
+        return BODY;
+    }
+
+    private int fill(byte[] bytes, int off, int end, int count) {
+        int n = Math.min(count - filled, end - off);
+        System.arraycopy(bytes, off, fields, filled, n);
+        filled += n;
+        return off + n;
+    }
+
+    private int int32(int at) {
+        return (fields[at] & 0xFF) | (fields[at + 1] & 0xFF) << 8 | (fields[at + 2] & 0xFF) << 16 | (fields[at + 3] & 0xFF) << 24;
+    }
+
+    private int inflate(byte[] bytes, int off, int end) throws IOException {
+        inflater.setInput(bytes, off, end - off);
+        try {
+            while (!inflater.finished()) {
+                int n = inflater.inflate(inflated);
+                if (n > 0) {
+                    if (gzip) {
+                        crc.update(inflated, 0, n);
+                        size += n;
+                    }
+                    injecting.write(inflated, 0, n);
+                    if (!recompressing && injecting.isInjected()) {
+                        // takes effect with the next bytes the compressor sees
+                        deflater.setLevel(levelAfterInjection);
+                        recompressing = true;
+                    }
+                } else if (inflater.needsInput()) {
+                    break;
+                } else if (inflater.needsDictionary()) {
+                    throw new ZipException("Compressed streams with a preset dictionary are not supported");
+                }
+            }
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        }
+        int consumed = end - off - inflater.getRemaining();
+        if (inflater.finished()) {
+            inflater.reset();
+            part = gzip ? TRAILER : END;
+        }
+        return off + consumed;
+    }
+
+    @Override
+    public void flush() throws IOException {
+        injecting.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            boolean complete = gzip ? part == HEADER && filled == 0 : part == END || !started;
+            if (!complete) {
+                throw new ZipException("Unexpected end of the compressed stream");
+            }
+        } finally {
+            try {
+                injecting.close();
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    private static final class Gzip extends GZIPOutputStream {
+
+        private Gzip(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE, true);
+            def.setLevel(level);
+        }
+
+        private Deflater deflater() {
+            return def;
+        }
+    }
+
+    private static final class Zlib extends DeflaterOutputStream {
+
+        private Zlib(OutputStream out, int level) {
+            super(out, new Deflater(level), BUFFER_SIZE, true);
+        }
+
+        private Deflater deflater() {
+            return def;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+
+/**
+ * An injecting output stream that many threads may write to at once, such as a log or an event
+ * stream fanned out to a single sink.
+ * <p>
+ * Where the delimiter occurs depends on the order of every byte written before it, so until
+ * the injection is settled each write is scanned and passed on while holding a lock, which
+ * keeps every write whole. The lock is a {@link ReentrantLock} rather than a monitor so that
+ * virtual threads waiting for it do not pin their carrier.
+ * <p>
+ * Once the injection has been written for the last time, or the scan limit gave up on it, and
+ * nothing is held back or coalesced anymore, writes go straight to the sink without taking the
+ * lock. From then on the sink alone keeps concurrent writes whole, so it has to be safe for
+ * concurrent use itself, as any sink shared by many threads must be. Closing waits for the
+ * writes already on their way to the sink and rejects any that come after.
+ */
+public final class ConcurrentInjectingOutputStream extends OutputStream {
+
+    private final InjectingOutputStream delegate;
+    private final ReentrantLock lock = new ReentrantLock();
+    // signalled once closing has begun and the last write on its way to the sink is done
+    private final Condition drained = lock.newCondition();
+    // set once the delegate would only pass every write on to this sink
+    private volatile OutputStream direct;
+    // the writes passing straight on to the sink right now, which closing has to wait for
+    private final AtomicInteger passing = new AtomicInteger();
+    private volatile boolean closing;
+
+    public ConcurrentInjectingOutputStream(InjectingOutputStream delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        OutputStream direct = this.direct;
+        if (direct != null && enter()) {
+            try {
+                direct.write(b);
+            } finally {
+                leave();
+            }
+            return;
+        }
+        lock.lock();
+        try {
+            ensureOpen();
+            delegate.write(b);
+        } finally {
+            settle();
+        }
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        OutputStream direct = this.direct;
+        if (direct != null && enter()) {
+            try {
+                direct.write(b, off, len);
+            } finally {
+                leave();
+            }
+            return;
+        }
+        lock.lock();
+        try {
+            ensureOpen();
+            delegate.write(b, off, len);
+        } finally {
+            settle();
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        OutputStream direct = this.direct;
+        if (direct != null && enter()) {
+            try {
+                direct.flush();
+            } finally {
+                leave();
+            }
+            return;
+        }
+        lock.lock();
+        try {
+            ensureOpen();
+            delegate.flush();
+        } finally {
+            settle();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.lock();
+        try {
+            if (closing) {
+                return;
+            }
+            closing = true;
+            direct = null;
+            // a write that got past enter() before closing was set is still on its way
+            while (passing.get() > 0) {
+                drained.await();
+            }
+            delegate.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for writes to finish.");
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true once the injection has been written at least once.
+     */
+    public boolean isInjected() {
+        lock.lock();
+        try {
+            return delegate.isInjected();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true once the scan limit was reached without finding the delimiter.
+     */
+    public boolean isSkipped() {
+        lock.lock();
+        try {
+            return delegate.isSkipped();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Counts a write that is about to pass straight on to the sink, unless closing has begun.
+     * Counting before checking means that close either sees the write or the write sees close.
+     *
+     * @return false if the write has to take the lock instead.
+     */
+    private boolean enter() {
+        passing.incrementAndGet();
+        if (closing) {
+            leave();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Counts a write off the fast path again, waking a waiting close after the last one.
+     */
+    private void leave() {
+        if (passing.decrementAndGet() == 0 && closing) {
+            lock.lock();
+            try {
+                drained.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void ensureOpen() throws IOException {
+        if (closing) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /**
+     * Publishes the fast path as soon as the delegate allows it and releases the lock. The write
+     * that settled the injection has been passed on completely by then, so no later write can
+     * overtake it.
+     */
+    private void settle() {
+        try {
+            direct = closing ? null : delegate.direct();
+        } finally {
+            lock.unlock();
+        }
+    }
+}
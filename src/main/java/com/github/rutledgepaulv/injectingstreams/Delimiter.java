@@ -0,0 +1,236 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.util.ArrayList;
+import java.util.List;
+
+
+/**
+ * A delimiter that is matched against raw bytes, without decoding them.
+ * <p>
+ * Besides literal bytes a delimiter can fold ASCII case and contain simple classes of bytes,
+ * for example to find {@code </BODY>} as well as {@code </body>} or {@code <head >} as well as
+ * {@code <head>}. Every byte class is a lookup table of 256 entries and the whole delimiter is
+ * compiled into a single automaton when it is built, so matching stays a single pass over the
+ * bytes no matter what the delimiter contains.
+ * <p>
+ * <pre>{@code
+ * Delimiter body = Delimiter.ignoreCase("</body>");
+ * Delimiter head = Delimiter.builder().ignoreCase("<head").whitespace().literal(">").build();
+ * Delimiter open = Delimiter.pattern("(?i)<body[^>]*>");
+ * }</pre>
+ * <p>
+ * When a delimiter can match more than one series of bytes, occurrences are recognized in the
+ * order in which they end and each one is the longest series of bytes that ends there.
+ * <p>
+ * Instances are immutable and may be shared.
+ */
+public final class Delimiter {
+
+    private final DelimiterMatcher matcher;
+
+    private Delimiter(DelimiterMatcher matcher) {
+        this.matcher = matcher;
+    }
+
+    public static Delimiter literal(String delimiter) {
+        return literal(delimiter.getBytes());
+    }
+
+    public static Delimiter literal(byte[] delimiter) {
+        return new Delimiter(new DelimiterMatcher(delimiter));
+    }
+
+    public static Delimiter ignoreCase(String delimiter) {
+        return builder().ignoreCase(delimiter).build();
+    }
+
+    /**
+     * Matches the delimiter regardless of the case of its ASCII letters.
+     */
+    public static Delimiter ignoreCase(byte[] delimiter) {
+        return builder().ignoreCase(delimiter).build();
+    }
+
+    /**
+     * Compiles a restricted regular expression over bytes, for example {@code <head[^>]*>} or
+     * {@code (?i)</body\s*>}. Supported are any byte {@code .}, classes such as {@code [a-z]} and
+     * {@code [^>]}, the escapes {@code \s \S \d \D \w \W \t \n \r \f \xHH} and the
+     * quantifiers {@code ? * + {n} {n,} {n,m}}, which apply to a single byte or class. A leading
+     * {@code (?i)} ignores ASCII case. Groups, alternation, anchors and backreferences are not
+     * supported.
+     *
+     * @throws IllegalArgumentException if the pattern is malformed or unsupported.
+     */
+    public static Delimiter pattern(String pattern) {
+        return builder().pattern(pattern).build();
+    }
+
+    /**
+     * @return an empty builder for a delimiter made of literal bytes and classes of bytes.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    DelimiterMatcher matcher() {
+        return matcher;
+    }
+
+    /**
+     * Assembles a delimiter from left to right. Not thread safe.
+     */
+    public static final class Builder {
+
+        private static final int MAX_ATOMS = 1024;
+
+        private final List<boolean[]> classes = new ArrayList<>();
+        private final List<Integer> kinds = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        public Builder literal(String bytes) {
+            return literal(bytes.getBytes());
+        }
+
+        public Builder literal(byte[] bytes) {
+            for (byte b : bytes) {
+                boolean[] single = new boolean[256];
+                single[b & 0xFF] = true;
+                add(single, DelimiterMatcher.ONE);
+            }
+            return this;
+        }
+
+        public Builder ignoreCase(String bytes) {
+            return ignoreCase(bytes.getBytes());
+        }
+
+        /**
+         * Appends bytes that match regardless of the case of their ASCII letters.
+         */
+        public Builder ignoreCase(byte[] bytes) {
+            for (byte b : bytes) {
+                boolean[] folded = new boolean[256];
+                folded[b & 0xFF] = true;
+                if (b >= 'a' && b <= 'z') {
+                    folded[b - 'a' + 'A'] = true;
+                } else if (b >= 'A' && b <= 'Z') {
+                    folded[b - 'A' + 'a'] = true;
+                }
+                add(folded, DelimiterMatcher.ONE);
+            }
+            return this;
+        }
+
+        /**
+         * Appends a single byte that is any one of the given bytes.
+         */
+        public Builder anyOf(String bytes) {
+            if (bytes.isEmpty()) {
+                throw new IllegalArgumentException("At least one byte is required.");
+            }
+            boolean[] any = new boolean[256];
+            for (byte b : bytes.getBytes()) {
+                any[b & 0xFF] = true;
+            }
+            return add(any, DelimiterMatcher.ONE);
+        }
+
+        /**
+         * Appends a single byte that is none of the given bytes.
+         */
+        public Builder noneOf(String bytes) {
+            boolean[] none = new boolean[256];
+            for (int b = 0; b < 256; b++) {
+                none[b] = true;
+            }
+            for (byte b : bytes.getBytes()) {
+                none[b & 0xFF] = false;
+            }
+            return add(none, DelimiterMatcher.ONE);
+        }
+
+        /**
+         * Appends optional ASCII whitespace, that is any number of spaces, tabs, carriage
+         * returns, line feeds and form feeds, including none.
+         */
+        public Builder whitespace() {
+            boolean[] whitespace = new boolean[256];
+            for (char c : " \t\r\n\f".toCharArray()) {
+                whitespace[c] = true;
+            }
+            return add(whitespace, DelimiterMatcher.STAR);
+        }
+
+        /**
+         * Appends a pattern, see {@link Delimiter#pattern(String)}.
+         */
+        public Builder pattern(String pattern) {
+            DelimiterPattern.parse(pattern, this);
+            return this;
+        }
+
+        /**
+         * Appends between {@code min} and {@code max} bytes of the class, or at least {@code min}
+         * if {@code max} is negative.
+         */
+        Builder repeat(boolean[] bytes, int min, int max) {
+            for (int i = 0; i < min; i++) {
+                add(bytes, DelimiterMatcher.ONE);
+            }
+            if (max < 0) {
+                add(bytes, DelimiterMatcher.STAR);
+            } else {
+                for (int i = min; i < max; i++) {
+                    add(bytes, DelimiterMatcher.OPTIONAL);
+                }
+            }
+            return this;
+        }
+
+        Builder add(boolean[] bytes, int kind) {
+            if (classes.size() == MAX_ATOMS) {
+                throw new IllegalArgumentException("The delimiter is too long.");
+            }
+            classes.add(bytes);
+            kinds.add(kind);
+            return this;
+        }
+
+        /**
+         * Compiles the delimiter.
+         *
+         * @throws IllegalArgumentException if the delimiter is empty, begins with something
+         *                                  optional or is too complex to compile.
+         */
+        public Delimiter build() {
+            int n = classes.size();
+            if (n == 0) {
+                throw new IllegalArgumentException("The delimiter must contain at least one byte.");
+            }
+            byte[] literal = new byte[n];
+            boolean isLiteral = true;
+            for (int j = 0; j < n && isLiteral; j++) {
+                int count = 0;
+                boolean[] bytes = classes.get(j);
+                for (int b = 0; b < 256; b++) {
+                    if (bytes[b]) {
+                        literal[j] = (byte) b;
+                        count++;
+                    }
+                }
+                isLiteral = count == 1 && kinds.get(j) == DelimiterMatcher.ONE;
+            }
+            if (isLiteral) {
+                return new Delimiter(new DelimiterMatcher(literal));
+            }
+            int[] kinds = new int[n];
+            for (int j = 0; j < n; j++) {
+                kinds[j] = this.kinds.get(j);
+            }
+            return new Delimiter(new DelimiterMatcher(classes.toArray(new boolean[0][]), kinds));
+        }
+    }
+
+}
@@ -0,0 +1,571 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A precompiled automaton that recognizes one or more delimiters within a stream of bytes.
+ * <p>
+ * The delimiters are compiled once into an Aho-Corasick automaton (for a single delimiter this
+ * is exactly the Knuth-Morris-Pratt automaton) stored as a table with one row of 256 entries
+ * per state, so advancing the match by a single byte is a single table lookup. Unlike resetting
+ * to zero on a mismatch, the automaton falls back to the longest prefix of any delimiter that is
+ * still a suffix of the input, which means overlapping occurrences ("aab" inside "aaab") are
+ * never missed.
+ * <p>
+ * States are numbered so that a single delimiter's state is the number of its bytes matched so
+ * far. Transitions into a state where at least one delimiter ends are stored as the bitwise
+ * complement of that state, so detecting a match costs a sign check.
+ * <p>
+ * While nothing is matched the automaton can only leave its initial state on the first byte of
+ * some delimiter, so bulk writes use {@link #skip(byte[], int, int)} to jump straight to the
+ * next such byte, testing eight bytes at a time. A single literal delimiter of at least
+ * {@value #MIN_HORSPOOL_LENGTH} bytes is instead searched with Boyer-Moore-Horspool, which
+ * compares the byte under the last position of the delimiter and shifts by up to its whole
+ * length, so long markers are found without looking at most of the input. Either way the
+ * automaton resumes at the returned position, which keeps partial matches across writes exact.
+ * <p>
+ * Delimiters that are patterns of byte classes rather than literal bytes are compiled into the
+ * same kind of table by subset construction. Their states no longer tell exactly how many bytes
+ * of a partial match are held, so {@link #depth(int)} is only an upper bound and may be unbounded,
+ * and the start of a match is found by running the reversed pattern backwards from its end.
+ * <p>
+ * Instances are immutable and may be shared between streams.
+ */
+final class DelimiterMatcher {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+    private static final int MAX_SWAR_LANES = 4;
+    private static final int[] NO_MATCHES = new int[0];
+    private static final int MAX_PATTERN_STATES = 4096;
+    // below this the first byte skip wins, as a shift can never exceed the delimiter's length
+    static final int MIN_HORSPOOL_LENGTH = 16;
+
+    // the kinds of the atoms of a pattern
+    static final int ONE = 0;
+    static final int OPTIONAL = 1;
+    static final int STAR = 2;
+
+    private final byte[][] delimiters;
+    private final int[] transitions;
+    private final int[] depths;
+    private final int[] prefixOf;
+    private final int[][] matches;
+    private final boolean[] firsts;
+    private final long[] firstLanes;
+    private final boolean bounded;
+    // only for patterns, the anchored automaton of the reversed pattern
+    private final int[] reverse;
+    private final boolean[] reverseAccepting;
+    // only for a single long literal delimiter, how far a window ending in each byte may move
+    private final int[] shifts;
+
+    DelimiterMatcher(byte[] delimiter) {
+        this(new byte[][]{delimiter});
+    }
+
+    DelimiterMatcher(byte[][] delimiters) {
+        if (delimiters.length == 0) {
+            throw new IllegalArgumentException("At least one delimiter is required.");
+        }
+        this.delimiters = new byte[delimiters.length][];
+        int capacity = 1;
+        for (int i = 0; i < delimiters.length; i++) {
+            if (delimiters[i].length == 0) {
+                throw new IllegalArgumentException("The delimiter must contain at least one byte.");
+            }
+            this.delimiters[i] = delimiters[i].clone();
+            capacity += delimiters[i].length;
+        }
+
+        int[] table = new int[capacity << 8];
+        Arrays.fill(table, -1);
+        int[] depths = new int[capacity];
+        int[] prefixOf = new int[capacity];
+        // delimiters ending in each state as linked lists, to allow duplicates
+        int[] ends = new int[capacity];
+        int[] nextEnd = new int[this.delimiters.length];
+        Arrays.fill(ends, -1);
+
+        // lay out the trie, a lone delimiter gets the states 0 to length in order
+        int states = 1;
+        for (int d = 0; d < this.delimiters.length; d++) {
+            int state = 0;
+            for (byte b : this.delimiters[d]) {
+                int index = (state << 8) | (b & 0xFF);
+                if (table[index] < 0) {
+                    table[index] = states;
+                    depths[states] = depths[state] + 1;
+                    prefixOf[states] = d;
+                    states++;
+                }
+                state = table[index];
+            }
+            int last = -1;
+            for (int e = ends[state]; e >= 0; e = nextEnd[e]) {
+                last = e;
+            }
+            nextEnd[d] = -1;
+            if (last < 0) {
+                ends[state] = d;
+            } else {
+                nextEnd[last] = d;
+            }
+        }
+
+        // complete the trie into an automaton breadth first so every fallback is already complete
+        int[] fallbacks = new int[states];
+        int[] queue = new int[states];
+        int head = 0, tail = 0;
+        for (int b = 0; b < 256; b++) {
+            if (table[b] < 0) {
+                table[b] = 0;
+            } else {
+                queue[tail++] = table[b];
+            }
+        }
+        int[][] matches = new int[states][];
+        matches[0] = NO_MATCHES;
+        while (head < tail) {
+            int state = queue[head++];
+            int fallback = fallbacks[state];
+            // delimiters ending here are longer than any ending at the fallback
+            int[] inherited = matches[fallback];
+            int own = 0;
+            for (int e = ends[state]; e >= 0; e = nextEnd[e]) {
+                own++;
+            }
+            if (own == 0) {
+                matches[state] = inherited;
+            } else {
+                int[] all = new int[own + inherited.length];
+                int i = 0;
+                for (int e = ends[state]; e >= 0; e = nextEnd[e]) {
+                    all[i++] = e;
+                }
+                System.arraycopy(inherited, 0, all, own, inherited.length);
+                matches[state] = all;
+            }
+            int row = state << 8;
+            int fallbackRow = fallback << 8;
+            for (int b = 0; b < 256; b++) {
+                int child = table[row | b];
+                int alternative = table[fallbackRow | b];
+                if (child < 0) {
+                    table[row | b] = alternative;
+                } else {
+                    fallbacks[child] = alternative;
+                    queue[tail++] = child;
+                }
+            }
+        }
+
+        int size = states << 8;
+        for (int i = 0; i < size; i++) {
+            if (matches[table[i]].length > 0) {
+                table[i] = ~table[i];
+            }
+        }
+
+        this.transitions = states == capacity ? table : Arrays.copyOf(table, size);
+        this.depths = states == capacity ? depths : Arrays.copyOf(depths, states);
+        this.prefixOf = states == capacity ? prefixOf : Arrays.copyOf(prefixOf, states);
+        this.matches = matches;
+
+        this.firsts = firsts(transitions);
+        this.firstLanes = lanes(firsts);
+        this.bounded = true;
+        this.reverse = null;
+        this.reverseAccepting = null;
+        this.shifts = this.delimiters.length == 1 ? shifts(this.delimiters[0]) : null;
+    }
+
+    /**
+     * Compiles a pattern of atoms, each matching a single byte of its class exactly once, at
+     * most once or any number of times.
+     */
+    DelimiterMatcher(boolean[][] classes, int[] kinds) {
+        int n = classes.length;
+        if (n == 0 || kinds[0] != ONE) {
+            throw new IllegalArgumentException("The delimiter must begin with a byte that is not optional.");
+        }
+        this.delimiters = null;
+        this.prefixOf = null;
+        this.matches = null;
+
+        // the longest partial match at each position of the pattern, or -1 if there is no limit
+        int[] reach = new int[n + 1];
+        for (int j = 1; j <= n; j++) {
+            reach[j] = reach[j - 1] < 0 || kinds[j - 1] == STAR ? -1 : reach[j - 1] + 1;
+        }
+        for (int j = 0; j < n; j++) {
+            if (kinds[j] == STAR) {
+                reach[j] = -1;
+            }
+        }
+
+        List<BitSet> sets = new ArrayList<>();
+        Map<BitSet, Integer> ids = new HashMap<>();
+        BitSet start = new BitSet(n + 1);
+        start.set(0);
+        sets.add(start);
+        ids.put(start, 0);
+        int[] table = new int[16 << 8];
+        int[] depths = new int[16];
+        boolean bounded = true;
+        for (int state = 0; state < sets.size(); state++) {
+            BitSet set = sets.get(state);
+            int depth = 0;
+            for (int j = set.nextSetBit(0); j >= 0; j = set.nextSetBit(j + 1)) {
+                if (reach[j] < 0) {
+                    depth = -1;
+                    break;
+                }
+                depth = Math.max(depth, reach[j]);
+            }
+            if (state >= depths.length) {
+                depths = Arrays.copyOf(depths, depths.length * 2);
+                table = Arrays.copyOf(table, table.length * 2);
+            }
+            depths[state] = depth;
+            bounded &= depth >= 0;
+            for (int b = 0; b < 256; b++) {
+                BitSet next = step(set, b, classes, kinds);
+                // a match may begin at every byte
+                next.set(0);
+                int id = id(next, sets, ids);
+                table[(state << 8) | b] = next.get(n) ? ~id : id;
+            }
+        }
+        int states = sets.size();
+        this.transitions = Arrays.copyOf(table, states << 8);
+        this.depths = Arrays.copyOf(depths, states);
+        this.bounded = bounded;
+        this.firsts = firsts(transitions);
+        this.firstLanes = lanes(firsts);
+
+        boolean[][] reversedClasses = new boolean[n][];
+        int[] reversedKinds = new int[n];
+        for (int j = 0; j < n; j++) {
+            reversedClasses[j] = classes[n - 1 - j];
+            reversedKinds[j] = kinds[n - 1 - j];
+        }
+        sets.clear();
+        ids.clear();
+        BitSet reversedStart = closure(start, reversedKinds);
+        sets.add(reversedStart);
+        ids.put(reversedStart, 0);
+        table = new int[16 << 8];
+        boolean[] accepting = new boolean[16];
+        for (int state = 0; state < sets.size(); state++) {
+            BitSet set = sets.get(state);
+            if (state >= accepting.length) {
+                accepting = Arrays.copyOf(accepting, accepting.length * 2);
+                table = Arrays.copyOf(table, table.length * 2);
+            }
+            accepting[state] = set.get(n);
+            for (int b = 0; b < 256; b++) {
+                BitSet next = step(set, b, reversedClasses, reversedKinds);
+                table[(state << 8) | b] = next.isEmpty() ? -1 : id(next, sets, ids);
+            }
+        }
+        this.reverse = Arrays.copyOf(table, sets.size() << 8);
+        this.reverseAccepting = Arrays.copyOf(accepting, sets.size());
+        this.shifts = null;
+    }
+
+    private static int id(BitSet set, List<BitSet> sets, Map<BitSet, Integer> ids) {
+        Integer id = ids.get(set);
+        if (id == null) {
+            if (sets.size() == MAX_PATTERN_STATES) {
+                throw new IllegalArgumentException("The delimiter is too complex to compile.");
+            }
+            id = sets.size();
+            sets.add(set);
+            ids.put(set, id);
+        }
+        return id;
+    }
+
+    /**
+     * @return the positions of the pattern reached from {@code set} by the byte {@code b}.
+     */
+    private static BitSet step(BitSet set, int b, boolean[][] classes, int[] kinds) {
+        int n = classes.length;
+        BitSet next = new BitSet(n + 1);
+        for (int j = set.nextSetBit(0); j >= 0 && j < n; j = set.nextSetBit(j + 1)) {
+            if (classes[j][b]) {
+                next.set(kinds[j] == STAR ? j : j + 1);
+            }
+        }
+        return closure(next, kinds);
+    }
+
+    /**
+     * Adds every position that can be reached by passing over optional atoms.
+     */
+    private static BitSet closure(BitSet set, int[] kinds) {
+        int n = kinds.length;
+        for (int j = set.nextSetBit(0); j >= 0 && j < n; j = set.nextSetBit(j + 1)) {
+            if (kinds[j] != ONE) {
+                set.set(j + 1);
+            }
+        }
+        return set;
+    }
+
+    private static boolean[] firsts(int[] transitions) {
+        boolean[] firsts = new boolean[256];
+        for (int b = 0; b < 256; b++) {
+            firsts[b] = transitions[b] != 0;
+        }
+        return firsts;
+    }
+
+    /**
+     * @return the Horspool bad character table of the delimiter, or null if it is too short to
+     * benefit from one.
+     */
+    private static int[] shifts(byte[] delimiter) {
+        int length = delimiter.length;
+        if (length < MIN_HORSPOOL_LENGTH) {
+            return null;
+        }
+        int[] shifts = new int[256];
+        Arrays.fill(shifts, length);
+        for (int i = 0; i < length - 1; i++) {
+            shifts[delimiter[i] & 0xFF] = length - 1 - i;
+        }
+        return shifts;
+    }
+
+    private static long[] lanes(boolean[] firsts) {
+        long[] lanes = new long[MAX_SWAR_LANES];
+        int distinct = 0;
+        for (int b = 0; b < 256; b++) {
+            if (firsts[b]) {
+                if (distinct < MAX_SWAR_LANES) {
+                    lanes[distinct] = ONES * b;
+                }
+                distinct++;
+            }
+        }
+        return distinct <= MAX_SWAR_LANES ? Arrays.copyOf(lanes, distinct) : null;
+    }
+
+    /**
+     * @return the state after observing the byte {@code b} in {@code state}. A negative return
+     * value is the complement of a state in which at least one delimiter was just completed.
+     */
+    int next(int state, byte b) {
+        return transitions[(state << 8) | (b & 0xFF)];
+    }
+
+    /**
+     * Finds the next position at which a match could begin, assuming nothing is matched yet.
+     *
+     * @return an index within {@code [from, to]} that no match within {@code [from, to)} begins
+     * before. This is the first occurrence of the first byte of any delimiter, or of the whole
+     * delimiter when it is searched with Boyer-Moore-Horspool. Only a match that may continue
+     * past {@code to} is then left for the automaton to find.
+     */
+    int skip(byte[] bytes, int from, int to) {
+        int i = shifts == null ? from : horspool(bytes, from, to);
+        long[] lanes = firstLanes;
+        if (lanes != null && lanes.length == 1) {
+            long lane = lanes[0];
+            for (int last = to - Long.BYTES; i <= last; i += Long.BYTES) {
+                // lanes equal to the first byte become zero, and the classic has-zero-byte
+                // test flags the lowest of them exactly
+                long candidate = (long) LONGS.get(bytes, i) ^ lane;
+                long zeros = (candidate - ONES) & ~candidate & HIGHS;
+                if (zeros != 0) {
+                    return i + (Long.numberOfTrailingZeros(zeros) >>> 3);
+                }
+            }
+        } else if (lanes != null) {
+            for (int last = to - Long.BYTES; i <= last; i += Long.BYTES) {
+                // the lowest flagged lane across all first bytes is still exact
+                long word = (long) LONGS.get(bytes, i);
+                long zeros = 0;
+                for (long lane : lanes) {
+                    long candidate = word ^ lane;
+                    zeros |= (candidate - ONES) & ~candidate & HIGHS;
+                }
+                if (zeros != 0) {
+                    return i + (Long.numberOfTrailingZeros(zeros) >>> 3);
+                }
+            }
+        }
+        for (; i < to; i++) {
+            if (firsts[bytes[i] & 0xFF]) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * The same as {@link #skip(byte[], int, int)} for the absolute positions of a buffer, which
+     * lets direct buffers be scanned without copying them to the heap.
+     */
+    int skip(ByteBuffer buffer, int from, int to) {
+        int i = shifts == null ? from : horspool(buffer, from, to);
+        long[] lanes = firstLanes;
+        if (lanes != null) {
+            boolean reverse = buffer.order() == ByteOrder.BIG_ENDIAN;
+            for (int last = to - Long.BYTES; i <= last; i += Long.BYTES) {
+                long word = buffer.getLong(i);
+                if (reverse) {
+                    word = Long.reverseBytes(word);
+                }
+                long zeros = 0;
+                for (long lane : lanes) {
+                    long candidate = word ^ lane;
+                    zeros |= (candidate - ONES) & ~candidate & HIGHS;
+                }
+                if (zeros != 0) {
+                    return i + (Long.numberOfTrailingZeros(zeros) >>> 3);
+                }
+            }
+        }
+        for (; i < to; i++) {
+            if (firsts[buffer.get(i) & 0xFF]) {
+                return i;
+            }
+        }
+        return to;
+    }
+
+    /**
+     * @return the start of the first occurrence of the delimiter within {@code [from, to)}, or
+     * the first position past the last window that fits, from which on only a partial match can
+     * begin and is best found with the first byte skip.
+     */
+    private int horspool(byte[] bytes, int from, int to) {
+        byte[] delimiter = delimiters[0];
+        int last = delimiter.length - 1;
+        byte tail = delimiter[last];
+        int i = from;
+        for (int end = to - last; i < end; i += shifts[bytes[i + last] & 0xFF]) {
+            if (bytes[i + last] == tail && Arrays.equals(bytes, i, i + last, delimiter, 0, last)) {
+                return i;
+            }
+        }
+        return Math.min(i, to);
+    }
+
+    private int horspool(ByteBuffer buffer, int from, int to) {
+        byte[] delimiter = delimiters[0];
+        int last = delimiter.length - 1;
+        int i = from;
+        for (int end = to - last; i < end; i += shifts[buffer.get(i + last) & 0xFF]) {
+            int j = last;
+            while (j >= 0 && buffer.get(i + j) == delimiter[j]) {
+                j--;
+            }
+            if (j < 0) {
+                return i;
+            }
+        }
+        return Math.min(i, to);
+    }
+
+    /**
+     * @return the number of trailing input bytes that form the longest delimiter prefix in
+     * {@code state}. These bytes are always the leading bytes of {@link #prefix(int)}. For a
+     * pattern this is only an upper bound, and -1 when a partial match can be of any length.
+     */
+    int depth(int state) {
+        return depths[state];
+    }
+
+    /**
+     * @return true if {@link #depth(int)} is never unbounded.
+     */
+    boolean isBounded() {
+        return bounded;
+    }
+
+    /**
+     * @return the length of the longest match ending with the last byte of the input, where
+     * {@code state} is the complement of the transition that found it. The input is the bytes
+     * of {@code head[headFrom, headTo)} followed by those of {@code tail[tailFrom, tailTo)}, and
+     * must contain the whole match.
+     */
+    int matchLength(int state, byte[] head, int headFrom, int headTo, byte[] tail, int tailFrom, int tailTo) {
+        if (reverse == null) {
+            return delimiters[matches[state][0]].length;
+        }
+        int current = 0;
+        int length = 0;
+        int longest = 0;
+        for (int i = tailTo - 1; i >= tailFrom; i--) {
+            current = reverse[(current << 8) | (tail[i] & 0xFF)];
+            if (current < 0) {
+                return longest;
+            }
+            length++;
+            if (reverseAccepting[current]) {
+                longest = length;
+            }
+        }
+        for (int i = headTo - 1; i >= headFrom; i--) {
+            current = reverse[(current << 8) | (head[i] & 0xFF)];
+            if (current < 0) {
+                return longest;
+            }
+            length++;
+            if (reverseAccepting[current]) {
+                longest = length;
+            }
+        }
+        return longest;
+    }
+
+    int matchLength(int state, byte[] bytes, int from, int to) {
+        return matchLength(state, bytes, from, from, bytes, from, to);
+    }
+
+    /**
+     * @return a delimiter that begins with the bytes matched so far in {@code state}. Callers
+     * must not modify the returned array. Only for literal delimiters, as are the methods below.
+     */
+    byte[] prefix(int state) {
+        return delimiters[prefixOf[state]];
+    }
+
+    /**
+     * @return the indices of every delimiter that ends in {@code state}, longest first. Callers
+     * must not modify the returned array.
+     */
+    int[] matches(int state) {
+        return matches[state];
+    }
+
+    byte[] delimiter(int index) {
+        return delimiters[index];
+    }
+
+    int length() {
+        return delimiters[0].length;
+    }
+
+    /**
+     * The first delimiter's bytes. Callers must not modify the returned array.
+     */
+    byte[] delimiter() {
+        return delimiters[0];
+    }
+
+}
@@ -0,0 +1,279 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+
+/**
+ * Parses the restricted regular expressions accepted by {@link Delimiter#pattern(String)} into
+ * the byte classes of a {@link Delimiter.Builder}.
+ * <p>
+ * The pattern is read as the bytes of its default encoding, so everything but the syntax below
+ * is a literal byte and quantifiers apply to a single byte or class.
+ * <ul>
+ * <li>{@code .} any byte, {@code [abc]}, {@code [a-z]} and {@code [^>]} classes</li>
+ * <li>{@code \s \S \d \D \w \W} and {@code \t \n \r \f \xHH}, any other escaped byte is literal</li>
+ * <li>{@code ? * + {n} {n,} {n,m}} quantifiers</li>
+ * <li>a leading {@code (?i)} to ignore ASCII case</li>
+ * </ul>
+ * Groups, alternation, anchors and backreferences are not supported.
+ */
+final class DelimiterPattern {
+
+    private final String pattern;
+    private final byte[] input;
+    private int position;
+    private boolean ignoreCase;
+
+    private DelimiterPattern(String pattern) {
+        this.pattern = pattern;
+        this.input = pattern.getBytes();
+    }
+
+    static void parse(String pattern, Delimiter.Builder builder) {
+        new DelimiterPattern(pattern).parseInto(builder);
+    }
+
+    private void parseInto(Delimiter.Builder builder) {
+        if (pattern.startsWith("(?i)")) {
+            ignoreCase = true;
+            position += 4;
+        }
+        while (position < input.length) {
+            boolean[] atom = atom();
+            if (ignoreCase) {
+                fold(atom);
+            }
+            quantified(atom, builder);
+        }
+    }
+
+    private boolean[] atom() {
+        int b = input[position++] & 0xFF;
+        switch (b) {
+            case '.':
+                return range(0, 255);
+            case '[':
+                return group();
+            case '\\':
+                return escape(false);
+            case '(':
+            case ')':
+            case '|':
+            case '^':
+            case '$':
+                throw error("Groups, alternation and anchors are not supported");
+            case '?':
+            case '*':
+            case '+':
+            case '{':
+                throw error("Nothing to repeat");
+            default:
+                return range(b, b);
+        }
+    }
+
+    private boolean[] group() {
+        boolean negated = position < input.length && input[position] == '^';
+        if (negated) {
+            position++;
+        }
+        boolean[] group = new boolean[256];
+        boolean first = true;
+        while (true) {
+            if (position >= input.length) {
+                throw error("Unclosed class");
+            }
+            int b = input[position++] & 0xFF;
+            if (b == ']' && !first) {
+                break;
+            }
+            first = false;
+            boolean[] member = b == '\\' ? escape(true) : range(b, b);
+            if (position + 1 < input.length && input[position] == '-' && input[position + 1] != ']') {
+                position++;
+                int to = input[position++] & 0xFF;
+                if (to == '\\') {
+                    to = single(escape(true));
+                }
+                int from = single(member);
+                if (to < from) {
+                    throw error("Illegal range");
+                }
+                member = range(from, to);
+            }
+            for (int i = 0; i < 256; i++) {
+                group[i] |= member[i];
+            }
+        }
+        if (ignoreCase) {
+            fold(group);
+        }
+        if (negated) {
+            for (int i = 0; i < 256; i++) {
+                group[i] = !group[i];
+            }
+        }
+        return group;
+    }
+
+    private boolean[] escape(boolean inGroup) {
+        if (position >= input.length) {
+            throw error("Dangling escape");
+        }
+        int b = input[position++] & 0xFF;
+        switch (b) {
+            case 's':
+                return of(" \t\r\n\f\u000B");
+            case 'S':
+                return not(of(" \t\r\n\f\u000B"));
+            case 'd':
+                return range('0', '9');
+            case 'D':
+                return not(range('0', '9'));
+            case 'w':
+                return word();
+            case 'W':
+                return not(word());
+            case 't':
+                return range('\t', '\t');
+            case 'n':
+                return range('\n', '\n');
+            case 'r':
+                return range('\r', '\r');
+            case 'f':
+                return range('\f', '\f');
+            case 'x':
+                int high = position < input.length ? Character.digit(input[position], 16) : -1;
+                int low = position + 1 < input.length ? Character.digit(input[position + 1], 16) : -1;
+                if (high < 0 || low < 0) {
+                    throw error("Illegal hexadecimal escape");
+                }
+                position += 2;
+                return range(high << 4 | low, high << 4 | low);
+            default:
+                if (!inGroup && b >= '0' && b <= '9') {
+                    throw error("Backreferences are not supported");
+                }
+                if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z')) {
+                    throw error("Unsupported escape");
+                }
+                return range(b, b);
+        }
+    }
+
+    private void quantified(boolean[] atom, Delimiter.Builder builder) {
+        int min = 1;
+        int max = 1;
+        if (position < input.length) {
+            switch (input[position]) {
+                case '?':
+                    position++;
+                    min = 0;
+                    break;
+                case '*':
+                    position++;
+                    min = 0;
+                    max = -1;
+                    break;
+                case '+':
+                    position++;
+                    max = -1;
+                    break;
+                case '{':
+                    position++;
+                    min = number();
+                    max = min;
+                    if (position < input.length && input[position] == ',') {
+                        position++;
+                        max = position < input.length && input[position] == '}' ? -1 : number();
+                    }
+                    if (position >= input.length || input[position++] != '}') {
+                        throw error("Unclosed repetition");
+                    }
+                    if (max >= 0 && max < min) {
+                        throw error("Illegal repetition");
+                    }
+                    break;
+                default:
+            }
+        }
+        builder.repeat(atom, min, max);
+    }
+
+    private int number() {
+        int start = position;
+        int value = 0;
+        while (position < input.length && input[position] >= '0' && input[position] <= '9') {
+            value = value * 10 + (input[position++] - '0');
+            if (value > 1024) {
+                throw error("Repetition is too large");
+            }
+        }
+        if (position == start) {
+            throw error("Expected a number");
+        }
+        return value;
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " near index " + (position - 1) + " of the pattern " + pattern);
+    }
+
+    private int single(boolean[] member) {
+        int found = -1;
+        for (int i = 0; i < 256; i++) {
+            if (member[i]) {
+                if (found >= 0) {
+                    throw error("Illegal range");
+                }
+                found = i;
+            }
+        }
+        return found;
+    }
+
+    private static boolean[] range(int from, int to) {
+        boolean[] range = new boolean[256];
+        for (int i = from; i <= to; i++) {
+            range[i] = true;
+        }
+        return range;
+    }
+
+    private static boolean[] of(String members) {
+        boolean[] of = new boolean[256];
+        for (char c : members.toCharArray()) {
+            of[c] = true;
+        }
+        return of;
+    }
+
+    private static boolean[] word() {
+        boolean[] word = range('a', 'z');
+        for (int i = 'A'; i <= 'Z'; i++) {
+            word[i] = true;
+        }
+        for (int i = '0'; i <= '9'; i++) {
+            word[i] = true;
+        }
+        word['_'] = true;
+        return word;
+    }
+
+    private static boolean[] not(boolean[] bytes) {
+        for (int i = 0; i < 256; i++) {
+            bytes[i] = !bytes[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Adds the other case of every ASCII letter.
+     */
+    static void fold(boolean[] bytes) {
+        for (int i = 'a'; i <= 'z'; i++) {
+            boolean either = bytes[i] || bytes[i - 'a' + 'A'];
+            bytes[i] = either;
+            bytes[i - 'a' + 'A'] = either;
+        }
+    }
+
+}
@@ -0,0 +1,205 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Injects into files that are too large to copy through a stream, such as multi gigabyte exports.
+ * <p>
+ * The source is memory mapped and searched for the first occurrence of the delimiter in
+ * segments, in parallel on a fork join pool. Every segment also looks at the bytes that precede
+ * it, so occurrences straddling a boundary are found as well, and segments that begin past an
+ * occurrence found elsewhere are not searched at all. The destination is then assembled with
+ * {@link FileChannel#transferTo}, which copies the untouched ranges without passing them through
+ * the heap.
+ * <p>
+ * Every method returns the offset in the source at which the injection was placed, or -1 if the
+ * delimiter does not occur, in which case the destination is a plain copy of the source. The
+ * destination must not be the source itself, not even through a link, since the files are
+ * never injected into in place.
+ */
+public final class InjectingFiles {
+
+    private static final long SEGMENT_SIZE = 16 << 20;
+
+    private InjectingFiles() {
+    }
+
+    public static long injectBefore(Path src, Path dst, String delimiter, String injection) throws IOException {
+        return injectBefore(src, dst, delimiter.getBytes(), injection.getBytes());
+    }
+
+    /**
+     * Encodes the delimiter and the injection with {@code charset} rather than the platform
+     * default, see {@link InjectingStreams#injectBeforeOutput(java.io.OutputStream, String, String, Charset)}.
+     */
+    public static long injectBefore(Path src, Path dst, String delimiter, String injection, Charset charset) throws IOException {
+        return injectBefore(src, dst, delimiter.getBytes(charset), injection.getBytes(charset));
+    }
+
+    public static long injectBefore(Path src, Path dst, byte[] delimiter, byte[] injection) throws IOException {
+        return injectBefore(src, dst, delimiter, injection, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * The same as {@link #injectBefore(Path, Path, byte[], byte[])}, searching on the given pool.
+     */
+    public static long injectBefore(Path src, Path dst, byte[] delimiter, byte[] injection, ForkJoinPool pool) throws IOException {
+        return inject(src, dst, delimiter, injection, true, pool, SEGMENT_SIZE);
+    }
+
+    public static long injectAfter(Path src, Path dst, String delimiter, String injection) throws IOException {
+        return injectAfter(src, dst, delimiter.getBytes(), injection.getBytes());
+    }
+
+    public static long injectAfter(Path src, Path dst, String delimiter, String injection, Charset charset) throws IOException {
+        return injectAfter(src, dst, delimiter.getBytes(charset), injection.getBytes(charset));
+    }
+
+    public static long injectAfter(Path src, Path dst, byte[] delimiter, byte[] injection) throws IOException {
+        return injectAfter(src, dst, delimiter, injection, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * The same as {@link #injectAfter(Path, Path, byte[], byte[])}, searching on the given pool.
+     */
+    public static long injectAfter(Path src, Path dst, byte[] delimiter, byte[] injection, ForkJoinPool pool) throws IOException {
+        return inject(src, dst, delimiter, injection, false, pool, SEGMENT_SIZE);
+    }
+
+    static long inject(Path src, Path dst, byte[] delimiter, byte[] injection, boolean before,
+                       ForkJoinPool pool, long segmentSize) throws IOException {
+        if (Files.exists(dst) && Files.isSameFile(src, dst)) {
+            // truncating the destination would wipe the source before it is read
+            throw new IllegalArgumentException("The source and the destination must be different files.");
+        }
+        DelimiterMatcher matcher = new DelimiterMatcher(delimiter);
+        try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(dst, StandardOpenOption.WRITE,
+                     StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            long size = in.size();
+            long end = search(in, matcher, delimiter.length, size, pool, segmentSize);
+            long offset = end < 0 ? -1 : before ? end - delimiter.length : end;
+            if (offset < 0) {
+                transfer(in, 0, size, out);
+            } else {
+                transfer(in, 0, offset, out);
+                ByteBuffer payload = ByteBuffer.wrap(injection);
+                while (payload.hasRemaining()) {
+                    out.write(payload);
+                }
+                transfer(in, offset, size - offset, out);
+            }
+            return offset;
+        }
+    }
+
+    /**
+     * @return the end of the first occurrence of the delimiter, or -1 if there is none.
+     */
+    private static long search(FileChannel in, DelimiterMatcher matcher, int length, long size,
+                               ForkJoinPool pool, long segmentSize) throws IOException {
+        AtomicLong found = new AtomicLong(Long.MAX_VALUE);
+        try {
+            pool.invoke(new Search(in, matcher, length, segmentSize, found, 0, size));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        long end = found.get();
+        return end == Long.MAX_VALUE ? -1 : end;
+    }
+
+    private static void transfer(FileChannel in, long position, long count, FileChannel out) throws IOException {
+        if (AbstractInjectingChannel.transferFully(in, position, count, out) < count) {
+            throw new EOFException("The source was truncated while being copied.");
+        }
+    }
+
+    /**
+     * Finds the occurrences that end within {@code (from, to]}, splitting the range until it is
+     * no larger than a segment, and keeps the earliest end in {@code found}.
+     */
+    private static final class Search extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel in;
+        private final DelimiterMatcher matcher;
+        private final int length;
+        private final long segmentSize;
+        private final AtomicLong found;
+        private final long from;
+        private final long to;
+
+        private Search(FileChannel in, DelimiterMatcher matcher, int length, long segmentSize,
+                       AtomicLong found, long from, long to) {
+            this.in = in;
+            this.matcher = matcher;
+            this.length = length;
+            this.segmentSize = segmentSize;
+            this.found = found;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (from >= found.get()) {
+                // an occurrence ending earlier has been found already
+                return;
+            }
+            if (to - from > segmentSize) {
+                long middle = from + (to - from) / 2;
+                invokeAll(new Search(in, matcher, length, segmentSize, found, from, middle),
+                        new Search(in, matcher, length, segmentSize, found, middle, to));
+                return;
+            }
+            try {
+                long end = scan();
+                if (end >= 0) {
+                    found.accumulateAndGet(end, Math::min);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private long scan() throws IOException {
+            // an occurrence ending just past from begins up to length - 1 bytes before it
+            long base = Math.max(0, from - length + 1);
+            if (to <= base) {
+                return -1;
+            }
+            MappedByteBuffer buffer = in.map(FileChannel.MapMode.READ_ONLY, base, to - base);
+            int end = buffer.limit();
+            int state = 0;
+            int i = 0;
+            while (i < end) {
+                if (state == 0 && (i = matcher.skip(buffer, i, end)) == end) {
+                    break;
+                }
+                state = matcher.next(state, buffer.get(i++));
+                if (state < 0) {
+                    if (base + i > from) {
+                        return base + i;
+                    }
+                    // belongs to the preceding segment, but may overlap one that does not
+                    state = ~state;
+                }
+            }
+            return -1;
+        }
+    }
+}
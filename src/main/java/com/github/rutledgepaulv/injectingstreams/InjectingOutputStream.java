@@ -0,0 +1,462 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+
+/**
+ * The common parent of the output streams that inject content next to the first occurrence
+ * of a delimiter.
+ * <p>
+ * Assumes a single writer (no synchronization)
+ */
+public abstract class InjectingOutputStream extends FilterOutputStream {
+
+    final DelimiterMatcher matcher;
+    final Injection injection;
+    private final CoalescingOutputStream coalescer;
+    private final Options options;
+    private final Occurrences occurrences;
+    private final Runnable onSkipped;
+    private final InjectionListener listener;
+    // counts the bytes of each injection, only when there is a listener
+    private Counter counter;
+    private long scanLimit;
+    private long scanned = 0;
+    private long occurrence = 0;
+    private boolean injected = false;
+    private boolean skipped = false;
+    private boolean closed = false;
+    // holds back the bytes following a pending injection, see InjectionSpec#awaitInjection
+    private Deferral deferral;
+    // set once the stream no longer looks for the delimiter, for whatever reason
+    boolean passthrough = false;
+
+    InjectingOutputStream(OutputStream out, DelimiterMatcher matcher, Injection injection, Options options) {
+        super(options.sink(out));
+        this.matcher = matcher;
+        this.injection = injection;
+        this.coalescer = options.bufferSize > 0 ? (CoalescingOutputStream) this.out : null;
+        this.options = options;
+        this.occurrences = options.occurrences;
+        this.onSkipped = options.onSkipped;
+        this.listener = options.listener;
+        this.scanLimit = options.scanLimit;
+        if (occurrences.repeats() && !injection.isReplayable()) {
+            throw new IllegalArgumentException("Injecting more than once requires a replayable injection.");
+        }
+    }
+
+    /**
+     * Counts an occurrence of the delimiter. Occurrences never overlap, so the caller must start
+     * over in the initial state afterwards. The scan limit only bounds the search for the first
+     * occurrence, whether or not the injection belongs there, so callers must extend the end of
+     * their scan with {@link #scanEnd(int, int)} afterwards.
+     *
+     * @return true if the injection must be written at this occurrence.
+     */
+    boolean occurred() {
+        if (++occurrence == 1) {
+            scanLimit = Long.MAX_VALUE;
+        }
+        return occurrences.includes(occurrence);
+    }
+
+    /**
+     * Writes the injection at the occurrence that was just scanned.
+     *
+     * @param back how many bytes before the end of the occurrence the injection is placed,
+     *             which is the length of the delimiter when injecting before it.
+     */
+    void inject(int back) throws IOException {
+        long offset = scanned - back;
+        long start = listener != null ? System.nanoTime() : 0;
+        boolean written = false;
+        try {
+            if (deferral != null) {
+                deferral.mark(offset, scanned);
+            } else if (!injection.isPending()) {
+                injection.writeTo(counted(out));
+                written = true;
+            } else if (options.awaitBuffer > 0) {
+                // keep writing, but into a buffer until the injection is resolved
+                deferral = new Deferral(out, deadline(), offset, scanned);
+                out = deferral;
+            } else {
+                writeAwaited(counted(out), deadline());
+                written = true;
+            }
+        } finally {
+            injected = true;
+            passthrough = occurrences.isLast(occurrence);
+        }
+        if (listener != null) {
+            if (written) {
+                listener.injected(offset, scanned, counter.take(), System.nanoTime() - start);
+            }
+            if (passthrough) {
+                listener.passthrough(scanned);
+            }
+        }
+    }
+
+    /**
+     * @return the stream to write an injection to, which counts its bytes for the listener.
+     */
+    private OutputStream counted(OutputStream target) {
+        if (listener == null) {
+            return target;
+        }
+        if (counter == null) {
+            counter = new Counter();
+        }
+        counter.target = target;
+        counter.count = 0;
+        return counter;
+    }
+
+    private long deadline() {
+        long now = System.nanoTime();
+        return options.awaitNanos > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + options.awaitNanos;
+    }
+
+    /**
+     * Writes the injection once resolved, or the fallback if that takes until the deadline.
+     */
+    private void writeAwaited(OutputStream target, long deadline) throws IOException {
+        if (injection.await(deadline == Long.MAX_VALUE ? Long.MAX_VALUE : deadline - System.nanoTime())) {
+            injection.writeTo(target);
+        } else {
+            target.write(options.fallback);
+        }
+    }
+
+    /**
+     * Writes out the bytes held back for a pending injection once it is resolved, once they
+     * exceed the buffer or whenever {@code force} is set, waiting for the injection if need be.
+     */
+    private void settle(boolean force) throws IOException {
+        Deferral deferral = this.deferral;
+        if (deferral != null && (force || !injection.isPending() || deferral.count >= options.awaitBuffer)) {
+            this.deferral = null;
+            this.out = deferral.target;
+            int from = 0;
+            for (int i = 0; i < deferral.marks; i++) {
+                int to = deferral.positions[i];
+                out.write(deferral.bytes, from, to - from);
+                long start = listener != null ? System.nanoTime() : 0;
+                writeAwaited(counted(out), deferral.deadline);
+                if (listener != null) {
+                    listener.injected(deferral.offsets[i], deferral.scanned[i], counter.take(), System.nanoTime() - start);
+                }
+                from = to;
+            }
+            out.write(deferral.bytes, from, deferral.count - from);
+        }
+    }
+
+    /**
+     * Writes out the bytes held back for a pending injection like {@link #flush()} does, but only
+     * once that no longer blocks because the injection is resolved or its deadline has passed.
+     *
+     * @return true if nothing is held back anymore.
+     */
+    boolean settleWithoutBlocking() throws IOException {
+        Deferral deferral = this.deferral;
+        if (deferral != null && (!injection.isPending() || System.nanoTime() >= deferral.deadline)) {
+            settle(true);
+        }
+        return this.deferral == null;
+    }
+
+    /**
+     * @return the nanos left until the pending injection bytes are held back for times out, only
+     * while there is one. {@link Long#MAX_VALUE} if it never does.
+     */
+    long settleDelay() {
+        long deadline = deferral.deadline;
+        return deadline == Long.MAX_VALUE ? Long.MAX_VALUE : Math.max(0, deadline - System.nanoTime());
+    }
+
+    /**
+     * @return the number of bytes held back for a pending injection right now.
+     */
+    int deferred() {
+        return deferral == null ? 0 : deferral.count;
+    }
+
+    /**
+     * @return the end of the part of {@code bytes[off, off + len)} that may still be scanned
+     * without exceeding the scan limit.
+     */
+    int scanEnd(int off, int len) {
+        long left = scanLimit - scanned;
+        return left < len ? off + (int) left : off + len;
+    }
+
+    /**
+     * Counts {@code count} more bytes against the scan limit.
+     *
+     * @return true if the limit has been reached, in which case the caller must release
+     * anything it holds back and then call {@link #skip()}.
+     */
+    boolean scanned(int count) {
+        scanned += count;
+        return scanned >= scanLimit;
+    }
+
+    /**
+     * Gives up on finding the delimiter, every later write passes straight through.
+     */
+    void skip() {
+        skipped = true;
+        passthrough = true;
+        if (onSkipped != null) {
+            onSkipped.run();
+        }
+        if (listener != null) {
+            listener.skipped(scanned);
+            listener.passthrough(scanned);
+        }
+    }
+
+    /**
+     * Hands over the sink once this stream would pass every later write on to it unchanged, so
+     * the rest of a body can be written to it directly. Anything coalesced on the way is drained
+     * to the sink first, write everything that follows to the sink rather than to this stream.
+     *
+     * @return the sink, or null while the delimiter may still be found or bytes are held back
+     * for a pending injection.
+     */
+    public OutputStream passthrough() throws IOException {
+        if (deferral != null) {
+            settle(false);
+        }
+        if (!passthrough || deferral != null) {
+            return null;
+        }
+        if (coalescer != null) {
+            coalescer.drain();
+            return coalescer.target();
+        }
+        return out;
+    }
+
+    /**
+     * @return the sink once every later write passes straight through to it, nothing is held
+     * back and nothing is buffered on the way, otherwise null.
+     */
+    OutputStream direct() {
+        return passthrough && deferral == null && coalescer == null ? out : null;
+    }
+
+    /**
+     * Forgets everything about the bytes written so far.
+     */
+    abstract void clear();
+
+    abstract void process(int b) throws IOException;
+
+    abstract void process(byte[] bytes, int off, int len) throws IOException;
+
+    /**
+     * @return true once the injection has been written at least once.
+     */
+    public boolean isInjected() {
+        return injected;
+    }
+
+    /**
+     * @return true once the scan limit was reached without finding the delimiter. Such a
+     * stream never injects and passes every later write straight through.
+     */
+    public boolean isSkipped() {
+        return skipped;
+    }
+
+    /**
+     * Points this stream at a new sink and forgets everything about the bytes written so far,
+     * so that pooled instances can be reused. Any bytes still held back from the previous sink
+     * are discarded, so close or finish with the previous sink first.
+     *
+     * @throws IllegalStateException if the injection can only be written once.
+     */
+    public void reset(OutputStream out) {
+        if (!injection.isReplayable()) {
+            throw new IllegalStateException("Only streams with a replayable injection can be reset.");
+        }
+        if (deferral != null) {
+            this.out = deferral.target;
+            this.deferral = null;
+        }
+        if (coalescer != null) {
+            coalescer.reset(out);
+        } else {
+            this.out = out;
+        }
+        this.scanLimit = options.scanLimit;
+        this.scanned = 0;
+        this.occurrence = 0;
+        this.injected = false;
+        this.skipped = false;
+        this.closed = false;
+        this.passthrough = false;
+        clear();
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        process(b);
+        if (deferral != null) {
+            settle(false);
+        }
+        if (coalescer != null) {
+            coalescer.endOfWrite();
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes) throws IOException {
+        this.write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        process(bytes, off, len);
+        if (deferral != null) {
+            settle(false);
+        }
+        if (coalescer != null) {
+            coalescer.endOfWrite();
+        }
+    }
+
+    /**
+     * Flushes the sink, first waiting for a pending injection if bytes are held back for it.
+     */
+    @Override
+    public void flush() throws IOException {
+        settle(true);
+        super.flush();
+    }
+
+    /**
+     * Flushes and closes the sink and the injection. Unlike {@link FilterOutputStream#close()}
+     * this works again after {@link #reset(OutputStream)}.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            settle(true);
+        } finally {
+            try {
+                if (listener != null && !closed) {
+                    listener.closed(scanned, injected);
+                }
+                closed = true;
+                flush();
+            } finally {
+                try {
+                    injection.close();
+                } finally {
+                    out.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * The bytes written after a pending injection, along with the positions at which the
+     * injection belongs and the offsets and scanned bytes to report for each. Holds back no
+     * more than the await buffer, a write that would exceed it settles the injection and goes
+     * on to the sink with whatever does not fit.
+     */
+    private final class Deferral extends OutputStream {
+
+        private final OutputStream target;
+        private final long deadline;
+        private byte[] bytes = new byte[Math.min(256, options.awaitBuffer)];
+        private int count;
+        private int[] positions = new int[1];
+        private long[] offsets = new long[1];
+        private long[] scanned = new long[1];
+        private int marks = 1;
+
+        private Deferral(OutputStream target, long deadline, long offset, long scanned) {
+            this.target = target;
+            this.deadline = deadline;
+            this.offsets[0] = offset;
+            this.scanned[0] = scanned;
+        }
+
+        private void mark(long offset, long scanned) {
+            if (marks == positions.length) {
+                positions = Arrays.copyOf(positions, marks * 2);
+                offsets = Arrays.copyOf(offsets, marks * 2);
+                this.scanned = Arrays.copyOf(this.scanned, marks * 2);
+            }
+            positions[marks] = count;
+            offsets[marks] = offset;
+            this.scanned[marks++] = scanned;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == options.awaitBuffer) {
+                settle(true);
+                target.write(b);
+                return;
+            }
+            grow(1);
+            bytes[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            int room = options.awaitBuffer - count;
+            int held = Math.min(len, room);
+            grow(held);
+            System.arraycopy(b, off, bytes, count, held);
+            count += held;
+            if (held < len) {
+                settle(true);
+                target.write(b, off + held, len - held);
+            }
+        }
+
+        private void grow(int len) {
+            if (count + len > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.min(options.awaitBuffer, Math.max(count + len, bytes.length * 2)));
+            }
+        }
+    }
+
+    /**
+     * Passes the bytes of an injection on to the sink and counts them.
+     */
+    private static final class Counter extends OutputStream {
+
+        private OutputStream target;
+        private long count;
+
+        @Override
+        public void write(int b) throws IOException {
+            target.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            target.write(b, off, len);
+            count += len;
+        }
+
+        private long take() {
+            long count = this.count;
+            this.count = 0;
+            return count;
+        }
+    }
+}
@@ -0,0 +1,278 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+
+/**
+ * A processor that injects into a stream of byte buffers, for non-blocking pipelines such as the
+ * body subscribers of the JDK's {@code HttpClient}.
+ * <p>
+ * Every buffer is run through an injecting output stream that collects what it writes instead
+ * of blocking on a sink. Bytes that pass straight through are emitted as slices of the incoming
+ * heap buffers, so upstream must not reuse a buffer once it has been handed over. Only the bytes
+ * held back for a partial match across buffers, the injection and the contents of direct or read
+ * only buffers are copied.
+ * <p>
+ * Backpressure is honored in both directions: a single buffer is requested from upstream at a
+ * time and only once everything produced from the previous one has been requested downstream.
+ * A processor has a single subscriber and is used once. Injections backed by an
+ * {@link java.io.InputStream} are read on the thread that delivers the buffer, so prefer
+ * injections held in memory to stay non-blocking.
+ * <p>
+ * A pending injection never blocks the delivering thread. The bytes following it are held back
+ * and nothing more is requested from upstream until it is resolved or times out, at which point
+ * the thread that resolved it, or a timer, carries on emitting.
+ */
+final class InjectingProcessor implements Flow.Processor<ByteBuffer, ByteBuffer> {
+
+    private final Queue<ByteBuffer> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicLong demand = new AtomicLong();
+    private final AtomicInteger wip = new AtomicInteger();
+    private final InjectingOutputStream stream;
+    private volatile Flow.Subscription upstream;
+    private volatile Flow.Subscriber<? super ByteBuffer> downstream;
+    private volatile boolean requested;
+    // set while bytes are held back for a pending injection, nothing else touches the stream then
+    private volatile boolean deferring;
+    private volatile boolean completing;
+    private volatile boolean done;
+    private volatile boolean cancelled;
+    private volatile Throwable error;
+    private boolean terminated;
+    // the array of the buffer being processed, whose bytes may be emitted without copying
+    private byte[] current;
+
+    InjectingProcessor(Function<OutputStream, InjectingOutputStream> wrap) {
+        this.stream = wrap.apply(new Collector());
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("A subscriber is required.");
+        }
+        synchronized (this) {
+            if (downstream != null) {
+                subscriber.onSubscribe(new Flow.Subscription() {
+                    @Override
+                    public void request(long n) {
+                    }
+
+                    @Override
+                    public void cancel() {
+                    }
+                });
+                subscriber.onError(new IllegalStateException("Only a single subscriber is supported."));
+                return;
+            }
+            downstream = subscriber;
+        }
+        subscriber.onSubscribe(new Downstream());
+        drain();
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (upstream != null || done) {
+            subscription.cancel();
+            return;
+        }
+        upstream = subscription;
+        drain();
+    }
+
+    @Override
+    public void onNext(ByteBuffer buffer) {
+        if (done) {
+            return;
+        }
+        try {
+            if (buffer.hasArray()) {
+                current = buffer.array();
+                stream.write(current, buffer.arrayOffset() + buffer.position(), buffer.remaining());
+            } else {
+                current = new byte[buffer.remaining()];
+                buffer.duplicate().get(current);
+                stream.write(current, 0, current.length);
+            }
+            buffer.position(buffer.limit());
+            if (!stream.settleWithoutBlocking()) {
+                defer();
+            }
+        } catch (IOException | RuntimeException e) {
+            upstream.cancel();
+            fail(e);
+            return;
+        } finally {
+            current = null;
+        }
+        requested = false;
+        drain();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        if (!done) {
+            fail(throwable);
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        if (!done) {
+            // the stream is closed by the drain loop, once nothing is held back for an injection
+            completing = true;
+            drain();
+        }
+    }
+
+    /**
+     * Pauses until the pending injection is resolved or times out, either of which resumes the
+     * drain loop.
+     */
+    private void defer() {
+        deferring = true;
+        long delay = stream.settleDelay();
+        stream.injection.whenResolved(this::drain);
+        if (delay != Long.MAX_VALUE) {
+            CompletableFuture.delayedExecutor(delay, TimeUnit.NANOSECONDS).execute(this::drain);
+        }
+    }
+
+    /**
+     * Writes out whatever the stream holds back once that no longer blocks, and closes it once
+     * upstream completed, which releases anything still held back for a partial match.
+     */
+    private void settle() {
+        try {
+            if (deferring && stream.settleWithoutBlocking()) {
+                deferring = false;
+            }
+            if (completing && !deferring && !done) {
+                stream.close();
+                done = true;
+            }
+        } catch (IOException | RuntimeException e) {
+            Flow.Subscription subscription = upstream;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            error = e;
+            done = true;
+        }
+    }
+
+    private void fail(Throwable throwable) {
+        error = throwable;
+        done = true;
+        drain();
+    }
+
+    /**
+     * Emits pending buffers as far as downstream demands them and asks upstream for the next
+     * buffer once nothing is pending. Runs on whichever thread signals first, any other thread
+     * signalling meanwhile only makes it loop once more.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Flow.Subscriber<? super ByteBuffer> subscriber = downstream;
+            if (cancelled) {
+                pending.clear();
+            } else if (subscriber != null && !terminated) {
+                settle();
+                if (error != null) {
+                    terminated = true;
+                    pending.clear();
+                    subscriber.onError(error);
+                } else {
+                    long wanted = demand.get();
+                    long emitted = 0;
+                    ByteBuffer next;
+                    while (emitted != wanted && (next = pending.poll()) != null) {
+                        subscriber.onNext(next);
+                        emitted++;
+                    }
+                    if (emitted != 0 && wanted != Long.MAX_VALUE) {
+                        demand.addAndGet(-emitted);
+                    }
+                    if (pending.isEmpty()) {
+                        if (done) {
+                            terminated = true;
+                            subscriber.onComplete();
+                        } else if (demand.get() > 0 && !requested && !deferring && !completing && upstream != null) {
+                            requested = true;
+                            upstream.request(1);
+                        }
+                    }
+                }
+            }
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private final class Downstream implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                Flow.Subscription subscription = upstream;
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+                fail(new IllegalArgumentException("The number of requested buffers must be positive."));
+                return;
+            }
+            demand.accumulateAndGet(n, (a, b) -> a + b < 0 ? Long.MAX_VALUE : a + b);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            Flow.Subscription subscription = upstream;
+            if (subscription != null) {
+                subscription.cancel();
+            }
+            drain();
+        }
+    }
+
+    /**
+     * Turns the writes of the injecting stream into buffers to emit, slicing the array of the
+     * incoming buffer and copying anything else since those arrays are reused.
+     */
+    private final class Collector extends OutputStream {
+
+        @Override
+        public void write(int b) {
+            pending.add(ByteBuffer.wrap(new byte[]{(byte) b}));
+        }
+
+        @Override
+        public void write(byte[] bytes, int off, int len) {
+            if (len == 0) {
+                return;
+            }
+            if (bytes == current) {
+                pending.add(ByteBuffer.wrap(bytes, off, len).slice());
+            } else {
+                pending.add(ByteBuffer.wrap(Arrays.copyOfRange(bytes, off, off + len)));
+            }
+        }
+    }
+}
@@ -1,12 +1,29 @@
 package com.github.rutledgepaulv.injectingstreams;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
 
 public final class InjectingStreams {
     private InjectingStreams() {
     }
 
+    /**
+     * @return an empty set of rules that can inject content around several different
+     * delimiters in a single pass.
+     */
+    public static InjectionRules rules() {
+        return new InjectionRules();
+    }
+
     public static OutputStream injectBeforeOutput(OutputStream out, String delimiter, String injection) {
         return new PreDelimiterInjectingOutputStream(out, delimiter, injection);
     }
@@ -55,4 +72,345 @@ public final class InjectingStreams {
         return new PostDelimiterInjectingOutputStream(out, delimiter, injection);
     }
 
+    public static OutputStream replaceOutput(OutputStream out, String delimiter, String replacement) {
+        return replaceOutput(out, delimiter.getBytes(), replacement.getBytes());
+    }
+
+    public static OutputStream replaceOutput(OutputStream out, String delimiter, byte[] replacement) {
+        return replaceOutput(out, delimiter.getBytes(), replacement);
+    }
+
+    public static OutputStream replaceOutput(OutputStream out, String delimiter, InputStream replacement) {
+        return replaceOutput(out, delimiter.getBytes(), replacement);
+    }
+
+    public static OutputStream replaceOutput(OutputStream out, byte[] delimiter, String replacement) {
+        return replaceOutput(out, delimiter, replacement.getBytes());
+    }
+
+    /**
+     * @return an output stream that writes the replacement in place of the first occurrence of
+     * the delimiter. {@link InjectionSpec#replace(byte[], byte[])} can replace every occurrence.
+     */
+    public static OutputStream replaceOutput(OutputStream out, byte[] delimiter, byte[] replacement) {
+        return new PreDelimiterInjectingOutputStream(out, new DelimiterMatcher(delimiter), Injection.of(replacement),
+                Options.DEFAULT, false);
+    }
+
+    public static OutputStream replaceOutput(OutputStream out, byte[] delimiter, InputStream replacement) {
+        return new PreDelimiterInjectingOutputStream(out, new DelimiterMatcher(delimiter), Injection.of(replacement),
+                Options.DEFAULT, false);
+    }
+
+    public static OutputStream removeOutput(OutputStream out, String delimiter) {
+        return replaceOutput(out, delimiter, new byte[0]);
+    }
+
+    public static OutputStream removeOutput(OutputStream out, byte[] delimiter) {
+        return replaceOutput(out, delimiter, new byte[0]);
+    }
+
+    /**
+     * Encodes the delimiter and the injection with {@code charset} rather than the platform
+     * default, which should match the encoding of the bytes written to the stream. Give UTF-16
+     * with an explicit byte order, since {@code UTF_16} begins every encoded string with a byte
+     * order mark that the stream will not contain.
+     */
+    public static OutputStream injectBeforeOutput(OutputStream out, String delimiter, String injection, Charset charset) {
+        return new PreDelimiterInjectingOutputStream(out, delimiter.getBytes(charset), injection.getBytes(charset));
+    }
+
+    /**
+     * The same as {@link #injectBeforeOutput(OutputStream, String, String, Charset)}.
+     */
+    public static OutputStream injectAfterOutput(OutputStream out, String delimiter, String injection, Charset charset) {
+        return new PostDelimiterInjectingOutputStream(out, delimiter.getBytes(charset), injection.getBytes(charset));
+    }
+
+    /**
+     * The same as {@link #injectBeforeOutput(OutputStream, String, String, Charset)}.
+     */
+    public static OutputStream replaceOutput(OutputStream out, String delimiter, String replacement, Charset charset) {
+        return replaceOutput(out, delimiter.getBytes(charset), replacement.getBytes(charset));
+    }
+
+    /**
+     * The same as {@link #injectBeforeOutput(OutputStream, String, String, Charset)}.
+     */
+    public static OutputStream removeOutput(OutputStream out, String delimiter, Charset charset) {
+        return removeOutput(out, delimiter.getBytes(charset));
+    }
+
+    public static InputStream injectBeforeInput(InputStream in, String delimiter, String injection) {
+        return new PreDelimiterInjectingInputStream(in, delimiter, injection);
+    }
+
+    public static InputStream injectBeforeInput(InputStream in, String delimiter, byte[] injection) {
+        return new PreDelimiterInjectingInputStream(in, delimiter, injection);
+    }
+
+    public static InputStream injectBeforeInput(InputStream in, String delimiter, InputStream injection) {
+        return new PreDelimiterInjectingInputStream(in, delimiter, injection);
+    }
+
+    public static InputStream injectBeforeInput(InputStream in, byte[] delimiter, String injection) {
+        return new PreDelimiterInjectingInputStream(in, delimiter, injection);
+    }
+
+    public static InputStream injectBeforeInput(InputStream in, byte[] delimiter, byte[] injection) {
+        return new PreDelimiterInjectingInputStream(in, delimiter, injection);
+    }
+
+    public static InputStream injectBeforeInput(InputStream in, byte[] delimiter, InputStream injection) {
+        return new PreDelimiterInjectingInputStream(in, delimiter, injection);
+    }
+
+    public static InputStream injectAfterInput(InputStream in, String delimiter, String injection) {
+        return new PostDelimiterInjectingInputStream(in, delimiter, injection);
+    }
+
+    public static InputStream injectAfterInput(InputStream in, String delimiter, byte[] injection) {
+        return new PostDelimiterInjectingInputStream(in, delimiter, injection);
+    }
+
+    public static InputStream injectAfterInput(InputStream in, String delimiter, InputStream injection) {
+        return new PostDelimiterInjectingInputStream(in, delimiter, injection);
+    }
+
+    public static InputStream injectAfterInput(InputStream in, byte[] delimiter, String injection) {
+        return new PostDelimiterInjectingInputStream(in, delimiter, injection);
+    }
+
+    public static InputStream injectAfterInput(InputStream in, byte[] delimiter, byte[] injection) {
+        return new PostDelimiterInjectingInputStream(in, delimiter, injection);
+    }
+
+    public static InputStream injectAfterInput(InputStream in, byte[] delimiter, InputStream injection) {
+        return new PostDelimiterInjectingInputStream(in, delimiter, injection);
+    }
+
+    /**
+     * Encodes the delimiter and the injection with {@code charset} rather than the platform
+     * default, as {@link #injectBeforeOutput(OutputStream, String, String, Charset)} does.
+     */
+    public static InputStream injectBeforeInput(InputStream in, String delimiter, String injection, Charset charset) {
+        return new PreDelimiterInjectingInputStream(in, delimiter.getBytes(charset), injection.getBytes(charset));
+    }
+
+    /**
+     * The same as {@link #injectBeforeInput(InputStream, String, String, Charset)}.
+     */
+    public static InputStream injectAfterInput(InputStream in, String delimiter, String injection, Charset charset) {
+        return new PostDelimiterInjectingInputStream(in, delimiter.getBytes(charset), injection.getBytes(charset));
+    }
+
+    /**
+     * The same as {@link #injectBeforeInput(InputStream, String, String, Charset)}.
+     */
+    public static InputStream replaceInput(InputStream in, String delimiter, String replacement, Charset charset) {
+        return replaceInput(in, delimiter.getBytes(charset), replacement.getBytes(charset));
+    }
+
+    /**
+     * The same as {@link #injectBeforeInput(InputStream, String, String, Charset)}.
+     */
+    public static InputStream removeInput(InputStream in, String delimiter, Charset charset) {
+        return removeInput(in, delimiter.getBytes(charset));
+    }
+
+    public static InputStream replaceInput(InputStream in, String delimiter, String replacement) {
+        return replaceInput(in, delimiter.getBytes(), replacement.getBytes());
+    }
+
+    public static InputStream replaceInput(InputStream in, String delimiter, byte[] replacement) {
+        return replaceInput(in, delimiter.getBytes(), replacement);
+    }
+
+    public static InputStream replaceInput(InputStream in, String delimiter, InputStream replacement) {
+        return replaceInput(in, delimiter.getBytes(), replacement);
+    }
+
+    public static InputStream replaceInput(InputStream in, byte[] delimiter, String replacement) {
+        return replaceInput(in, delimiter, replacement.getBytes());
+    }
+
+    /**
+     * @return an input stream that reads the replacement in place of the first occurrence of
+     * the delimiter.
+     */
+    public static InputStream replaceInput(InputStream in, byte[] delimiter, byte[] replacement) {
+        return new PreDelimiterInjectingInputStream(in, new DelimiterMatcher(delimiter), new ByteArrayInputStream(replacement), false);
+    }
+
+    public static InputStream replaceInput(InputStream in, byte[] delimiter, InputStream replacement) {
+        return new PreDelimiterInjectingInputStream(in, new DelimiterMatcher(delimiter), replacement, false);
+    }
+
+    public static InputStream removeInput(InputStream in, String delimiter) {
+        return replaceInput(in, delimiter, new byte[0]);
+    }
+
+    public static InputStream removeInput(InputStream in, byte[] delimiter) {
+        return replaceInput(in, delimiter, new byte[0]);
+    }
+
+    /**
+     * @return a writer that injects before the first occurrence of the delimiter, matching
+     * chars so that nothing needs to be encoded.
+     */
+    public static Writer injectBeforeWriter(Writer out, String delimiter, String injection) {
+        return new PreDelimiterInjectingWriter(out, delimiter, injection);
+    }
+
+    public static Writer injectBeforeWriter(Writer out, String delimiter, Reader injection) {
+        return new PreDelimiterInjectingWriter(out, delimiter, injection);
+    }
+
+    public static Writer injectAfterWriter(Writer out, String delimiter, String injection) {
+        return new PostDelimiterInjectingWriter(out, delimiter, injection);
+    }
+
+    public static Writer injectAfterWriter(Writer out, String delimiter, Reader injection) {
+        return new PostDelimiterInjectingWriter(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectBeforeChannel(WritableByteChannel out, String delimiter, String injection) {
+        return new PreDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    /**
+     * The same as {@link #injectBeforeOutput(OutputStream, String, String, Charset)}.
+     */
+    public static WritableByteChannel injectBeforeChannel(WritableByteChannel out, String delimiter, String injection, Charset charset) {
+        return new PreDelimiterInjectingChannel(out, delimiter.getBytes(charset), injection.getBytes(charset));
+    }
+
+    public static WritableByteChannel injectBeforeChannel(WritableByteChannel out, String delimiter, byte[] injection) {
+        return new PreDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectBeforeChannel(WritableByteChannel out, String delimiter, ByteBuffer injection) {
+        return new PreDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectBeforeChannel(WritableByteChannel out, String delimiter, ReadableByteChannel injection) {
+        return new PreDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectBeforeChannel(WritableByteChannel out, byte[] delimiter, String injection) {
+        return new PreDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectBeforeChannel(WritableByteChannel out, byte[] delimiter, byte[] injection) {
+        return new PreDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectBeforeChannel(WritableByteChannel out, byte[] delimiter, ByteBuffer injection) {
+        return new PreDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectBeforeChannel(WritableByteChannel out, byte[] delimiter, ReadableByteChannel injection) {
+        return new PreDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectAfterChannel(WritableByteChannel out, String delimiter, String injection) {
+        return new PostDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    /**
+     * The same as {@link #injectBeforeOutput(OutputStream, String, String, Charset)}.
+     */
+    public static WritableByteChannel injectAfterChannel(WritableByteChannel out, String delimiter, String injection, Charset charset) {
+        return new PostDelimiterInjectingChannel(out, delimiter.getBytes(charset), injection.getBytes(charset));
+    }
+
+    public static WritableByteChannel injectAfterChannel(WritableByteChannel out, String delimiter, byte[] injection) {
+        return new PostDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectAfterChannel(WritableByteChannel out, String delimiter, ByteBuffer injection) {
+        return new PostDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectAfterChannel(WritableByteChannel out, String delimiter, ReadableByteChannel injection) {
+        return new PostDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectAfterChannel(WritableByteChannel out, byte[] delimiter, String injection) {
+        return new PostDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectAfterChannel(WritableByteChannel out, byte[] delimiter, byte[] injection) {
+        return new PostDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectAfterChannel(WritableByteChannel out, byte[] delimiter, ByteBuffer injection) {
+        return new PostDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+    public static WritableByteChannel injectAfterChannel(WritableByteChannel out, byte[] delimiter, ReadableByteChannel injection) {
+        return new PostDelimiterInjectingChannel(out, delimiter, injection);
+    }
+
+
+    /**
+     * Copies everything left in {@code in} to {@code out}, closing neither. Once an injecting
+     * stream has settled its injection the rest is handed to {@link InputStream#transferTo} with
+     * the sink itself, which skips scanning and lets the source pick its fastest way to copy.
+     *
+     * @return the number of bytes read from {@code in}.
+     */
+    public static long transfer(InputStream in, OutputStream out) throws IOException {
+        InjectingOutputStream injecting = out instanceof InjectingOutputStream ? (InjectingOutputStream) out : null;
+        OutputStream sink = injecting == null ? out : injecting.passthrough();
+        byte[] buffer = new byte[8192];
+        long transferred = 0;
+        int n;
+        while (sink == null && -1 != (n = in.read(buffer))) {
+            out.write(buffer, 0, n);
+            transferred += n;
+            sink = injecting.passthrough();
+        }
+        return sink == null ? transferred : transferred + in.transferTo(sink);
+    }
+
+    /**
+     * Copies everything left in {@code in} to {@code out}, closing neither. Once an injecting
+     * channel has written its injection the rest goes to the sink itself, and a file is moved
+     * with {@link FileChannel#transferTo}, which avoids copying through user space when the sink
+     * is a file or a socket.
+     *
+     * @return the number of bytes read from {@code in}.
+     */
+    public static long transfer(ReadableByteChannel in, WritableByteChannel out) throws IOException {
+        AbstractInjectingChannel injecting = out instanceof AbstractInjectingChannel ? (AbstractInjectingChannel) out : null;
+        WritableByteChannel sink = injecting == null ? out : injecting.passthrough();
+        ByteBuffer buffer = null;
+        long transferred = 0;
+        while (sink == null || !(in instanceof FileChannel)) {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocateDirect(8192);
+            }
+            buffer.clear();
+            int n = in.read(buffer);
+            if (n < 0) {
+                return transferred;
+            }
+            buffer.flip();
+            WritableByteChannel target = sink == null ? out : sink;
+            while (buffer.hasRemaining()) {
+                target.write(buffer);
+            }
+            transferred += n;
+            if (sink == null) {
+                sink = injecting.passthrough();
+            }
+        }
+        FileChannel file = (FileChannel) in;
+        long position = file.position();
+        long n = AbstractInjectingChannel.transferFully(file, position, file.size() - position, sink);
+        file.position(position + n);
+        return transferred + n;
+    }
+
 }
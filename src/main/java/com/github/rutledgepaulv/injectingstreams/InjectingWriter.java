@@ -0,0 +1,92 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+
+/**
+ * The common parent of the writers that inject content next to the first occurrence of a
+ * delimiter. They match chars rather than bytes, so a {@link Writer} from a template engine
+ * needs no round trip through an encoder.
+ * <p>
+ * Assumes a single writer (no synchronization)
+ */
+public abstract class InjectingWriter extends FilterWriter {
+
+    private static final int CHUNK_SIZE = 1024;
+
+    final CharMatcher matcher;
+    private final String injection;
+    private final Reader source;
+    // strings are copied here a chunk at a time instead of allocating for every write
+    private char[] chunk;
+    boolean injected = false;
+
+    InjectingWriter(Writer out, String delimiter, String injection) {
+        this(out, delimiter, injection, null);
+    }
+
+    InjectingWriter(Writer out, String delimiter, Reader injection) {
+        this(out, delimiter, null, injection);
+    }
+
+    private InjectingWriter(Writer out, String delimiter, String injection, Reader source) {
+        super(out);
+        this.matcher = new CharMatcher(delimiter);
+        this.injection = injection;
+        this.source = source;
+    }
+
+    void inject() throws IOException {
+        try {
+            if (injection != null) {
+                out.write(injection);
+            } else {
+                try (Reader in = source) {
+                    in.transferTo(out);
+                }
+            }
+        } finally {
+            injected = true;
+        }
+    }
+
+    /**
+     * @return true once the injection has been written.
+     */
+    public boolean isInjected() {
+        return injected;
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        if (injected) {
+            out.write(str, off, len);
+            return;
+        }
+        if (chunk == null) {
+            chunk = new char[CHUNK_SIZE];
+        }
+        while (len > 0) {
+            int n = Math.min(len, chunk.length);
+            str.getChars(off, off + n, chunk, 0);
+            write(chunk, 0, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (!injected && source != null) {
+                source.close();
+            }
+            flush();
+        } finally {
+            out.close();
+        }
+    }
+}
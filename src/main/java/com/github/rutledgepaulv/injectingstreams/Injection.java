@@ -0,0 +1,265 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+
+/**
+ * The content an injecting stream writes once its delimiter has been found.
+ */
+abstract class Injection implements Closeable {
+
+    static Injection of(byte[] bytes) {
+        return new Bytes(bytes);
+    }
+
+    /**
+     * Copies the remaining bytes of {@code buffer}, leaving its position untouched.
+     */
+    static Injection of(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return new Bytes(bytes);
+    }
+
+    static Injection of(InputStream stream) {
+        return new Stream(stream);
+    }
+
+    static Injection of(Supplier<? extends InputStream> streams) {
+        return new Streams(streams);
+    }
+
+    /**
+     * Resolves the content asynchronously, see {@link #isPending()}.
+     */
+    static Injection of(CompletionStage<byte[]> bytes) {
+        return new Deferred(bytes.toCompletableFuture());
+    }
+
+    abstract void writeTo(OutputStream out) throws IOException;
+
+    /**
+     * @return true while the content is still being resolved, in which case it must be awaited
+     * before it can be written.
+     */
+    boolean isPending() {
+        return false;
+    }
+
+    /**
+     * Waits at most {@code timeoutNanos} for the content to be resolved.
+     *
+     * @return true if it can be written now, false if it is still pending.
+     * @throws IOException if resolving the content failed.
+     */
+    boolean await(long timeoutNanos) throws IOException {
+        return true;
+    }
+
+    /**
+     * Runs {@code action} once the content is resolved, right away if it is not pending, on
+     * whichever thread resolves it otherwise.
+     */
+    void whenResolved(Runnable action) {
+        action.run();
+    }
+
+    /**
+     * @return the content as a stream to read from. Unless the content is replayable this is
+     * the very stream the content was created with.
+     */
+    abstract InputStream open();
+
+    /**
+     * @return true if the content can be written more than once.
+     */
+    abstract boolean isReplayable();
+
+    @Override
+    public void close() throws IOException {
+    }
+
+    /**
+     * A fixed array of bytes, written with a single call and never consumed.
+     */
+    private static final class Bytes extends Injection {
+
+        private final byte[] bytes;
+
+        private Bytes(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        void writeTo(OutputStream out) throws IOException {
+            out.write(bytes);
+        }
+
+        @Override
+        InputStream open() {
+            return new ByteArrayInputStream(bytes);
+        }
+
+        @Override
+        boolean isReplayable() {
+            return true;
+        }
+    }
+
+    /**
+     * A stream of bytes that is copied once and closed afterwards.
+     */
+    private static final class Stream extends Injection {
+
+        private final InputStream stream;
+
+        private Stream(InputStream stream) {
+            this.stream = stream;
+        }
+
+        @Override
+        void writeTo(OutputStream out) throws IOException {
+            copy(stream, out);
+        }
+
+        @Override
+        InputStream open() {
+            return stream;
+        }
+
+        @Override
+        boolean isReplayable() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            stream.close();
+        }
+    }
+
+    /**
+     * A source of fresh streams, one of which is copied and closed for every injection.
+     */
+    private static final class Streams extends Injection {
+
+        private final Supplier<? extends InputStream> streams;
+
+        private Streams(Supplier<? extends InputStream> streams) {
+            this.streams = streams;
+        }
+
+        @Override
+        void writeTo(OutputStream out) throws IOException {
+            copy(open(), out);
+        }
+
+        @Override
+        InputStream open() {
+            return Objects.requireNonNull(streams.get(), "The injection supplier returned no stream.");
+        }
+
+        @Override
+        boolean isReplayable() {
+            return true;
+        }
+    }
+
+    /**
+     * Bytes that are still being resolved, for example by a cache lookup, and are written once
+     * available. Input streams read them lazily and block for them on the first read.
+     */
+    private static final class Deferred extends Injection {
+
+        private final CompletableFuture<byte[]> bytes;
+
+        private Deferred(CompletableFuture<byte[]> bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        void writeTo(OutputStream out) throws IOException {
+            await(Long.MAX_VALUE);
+            out.write(bytes.join());
+        }
+
+        @Override
+        boolean isPending() {
+            return !bytes.isDone();
+        }
+
+        @Override
+        boolean await(long timeoutNanos) throws IOException {
+            try {
+                bytes.get(Math.max(timeoutNanos, 0), TimeUnit.NANOSECONDS);
+                return true;
+            } catch (TimeoutException e) {
+                return false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the injection.");
+            } catch (ExecutionException | CancellationException e) {
+                throw new IOException("The injection could not be resolved.", e instanceof ExecutionException ? e.getCause() : e);
+            }
+        }
+
+        @Override
+        void whenResolved(Runnable action) {
+            bytes.whenComplete((content, failure) -> action.run());
+        }
+
+        @Override
+        InputStream open() {
+            return new InputStream() {
+                private InputStream resolved;
+
+                @Override
+                public int read() throws IOException {
+                    return resolved().read();
+                }
+
+                @Override
+                public int read(byte[] b, int off, int len) throws IOException {
+                    return resolved().read(b, off, len);
+                }
+
+                private InputStream resolved() throws IOException {
+                    if (resolved == null) {
+                        await(Long.MAX_VALUE);
+                        resolved = new ByteArrayInputStream(bytes.join());
+                    }
+                    return resolved;
+                }
+            };
+        }
+
+        @Override
+        boolean isReplayable() {
+            return true;
+        }
+    }
+
+    private static void copy(InputStream stream, OutputStream out) throws IOException {
+        try (InputStream in = stream) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while (-1 != (n = in.read(buffer))) {
+                out.write(buffer, 0, n);
+            }
+        }
+    }
+}
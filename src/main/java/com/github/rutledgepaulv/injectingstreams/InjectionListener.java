@@ -0,0 +1,54 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+
+/**
+ * Observes what an injecting output stream does with a body, see
+ * {@link InjectionSpec#listener(InjectionListener)}.
+ * <p>
+ * Offsets count the bytes written to the stream, before anything was injected. Callbacks run on
+ * the writing thread a handful of times per stream, never per byte, and streams without a
+ * listener do not even read the clock. A listener shared between streams must be thread safe,
+ * {@link InjectionMetrics} is one that aggregates everything.
+ */
+public interface InjectionListener {
+
+    /**
+     * Called after an injection was written.
+     *
+     * @param offset  where the injection was placed, the start of the delimiter when injecting
+     *                before or replacing it and its end when injecting after it.
+     * @param scanned the bytes scanned to find this occurrence, up to the end of the delimiter.
+     * @param bytes   the bytes written for the injection, or for the fallback of a pending
+     *                injection that timed out.
+     * @param nanos   the time spent writing the injection, including any wait for a pending one.
+     */
+    default void injected(long offset, long scanned, long bytes, long nanos) {
+    }
+
+    /**
+     * Called when the scan limit was reached without finding the delimiter.
+     *
+     * @param scanned the bytes scanned before giving up.
+     */
+    default void skipped(long scanned) {
+    }
+
+    /**
+     * Called when the stream stops looking for the delimiter, after the last injection or after
+     * giving up, and passes every later byte straight through.
+     *
+     * @param offset the offset of the first byte that is no longer scanned.
+     */
+    default void passthrough(long offset) {
+    }
+
+    /**
+     * Called once when the stream is closed, which is the only event of a stream that never
+     * found the delimiter and had no scan limit to give up at.
+     *
+     * @param scanned  the bytes scanned for the delimiter over the whole stream.
+     * @param injected whether the injection was written at least once.
+     */
+    default void closed(long scanned, boolean injected) {
+    }
+}
@@ -0,0 +1,136 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * A listener that aggregates the injections of any number of streams, cheap enough to share
+ * between all the streams of a server and to poll from a metrics registry.
+ * <p>
+ * <pre>{@code
+ * static final InjectionMetrics METRICS = new InjectionMetrics();
+ * static final InjectionSpec SNIPPET = InjectionSpec.before("</body>", "<script src='app.js'></script>").listener(METRICS);
+ * }</pre>
+ * <p>
+ * Thread safe.
+ */
+public final class InjectionMetrics implements InjectionListener {
+
+    private final LongAdder injections = new LongAdder();
+    private final LongAdder injectedBytes = new LongAdder();
+    private final LongAdder injectionNanos = new LongAdder();
+    private final LongAdder offsets = new LongAdder();
+    private final LongAdder skips = new LongAdder();
+    private final LongAdder passthroughs = new LongAdder();
+    private final LongAdder scannedBytes = new LongAdder();
+    private final LongAdder streams = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    @Override
+    public void injected(long offset, long scanned, long bytes, long nanos) {
+        injections.increment();
+        injectedBytes.add(bytes);
+        injectionNanos.add(nanos);
+        offsets.add(offset);
+    }
+
+    @Override
+    public void skipped(long scanned) {
+        skips.increment();
+    }
+
+    @Override
+    public void passthrough(long offset) {
+        passthroughs.increment();
+    }
+
+    @Override
+    public void closed(long scanned, boolean injected) {
+        streams.increment();
+        scannedBytes.add(scanned);
+        if (!injected) {
+            misses.increment();
+        }
+    }
+
+    /**
+     * @return the number of injections written.
+     */
+    public long injections() {
+        return injections.sum();
+    }
+
+    /**
+     * @return the bytes written for all injections.
+     */
+    public long injectedBytes() {
+        return injectedBytes.sum();
+    }
+
+    /**
+     * @return the time spent writing all injections.
+     */
+    public long injectionNanos() {
+        return injectionNanos.sum();
+    }
+
+    /**
+     * @return the sum of the offsets of all injections, divide by {@link #injections()} for the
+     * mean distance into a body at which the delimiter is found.
+     */
+    public long injectionOffsets() {
+        return offsets.sum();
+    }
+
+    /**
+     * @return the number of streams that gave up on the delimiter at their scan limit.
+     */
+    public long skips() {
+        return skips.sum();
+    }
+
+    /**
+     * @return the number of streams that stopped scanning, whether done injecting or skipped.
+     */
+    public long passthroughs() {
+        return passthroughs.sum();
+    }
+
+    /**
+     * @return the bytes the closed streams scanned for the delimiter, whether they stopped
+     * scanning early, injected at every occurrence or never found it.
+     */
+    public long scannedBytes() {
+        return scannedBytes.sum();
+    }
+
+    /**
+     * @return the number of streams closed so far.
+     */
+    public long streams() {
+        return streams.sum();
+    }
+
+    /**
+     * @return the number of closed streams that never wrote the injection, whether they gave up
+     * at their scan limit or the delimiter never occurred.
+     */
+    public long misses() {
+        return misses.sum();
+    }
+
+    @Override
+    public String toString() {
+        return "InjectionMetrics{" +
+                "injections=" + injections() +
+                ", injectedBytes=" + injectedBytes() +
+                ", injectionNanos=" + injectionNanos() +
+                ", injectionOffsets=" + injectionOffsets() +
+                ", skips=" + skips() +
+                ", passthroughs=" + passthroughs() +
+                ", scannedBytes=" + scannedBytes() +
+                ", streams=" + streams() +
+                ", misses=" + misses() +
+                '}';
+    }
+}
@@ -0,0 +1,135 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+
+/**
+ * Collects several injection rules so that they can be applied to a stream in a single pass,
+ * no matter how many rules there are. All delimiters are compiled into one automaton and each
+ * byte written costs one table lookup.
+ * <p>
+ * <pre>{@code
+ * OutputStream modified = InjectingStreams.rules()
+ *     .after("<head>", "<script src='config.js'></script>")
+ *     .before("</head>", "<link rel='stylesheet' href='overrides.css'>")
+ *     .before("</body>", "<script src='analytics.js'></script>")
+ *     .wrap(out);
+ * }</pre>
+ * <p>
+ * Each rule fires at most once, on the first occurrence of its delimiter. Occurrences are
+ * recognized in the order in which they end and never overlap. Rules with {@link String} or
+ * {@code byte[]} injections may be wrapped around any number of streams, while a rule with an
+ * {@link InputStream} injection is consumed by the first stream it is applied to.
+ * <p>
+ * Not thread safe.
+ */
+public final class InjectionRules {
+
+    private final List<byte[]> delimiters = new ArrayList<>();
+    private final List<Boolean> positions = new ArrayList<>();
+    private final List<Supplier<InputStream>> injections = new ArrayList<>();
+    private DelimiterMatcher compiled;
+
+    InjectionRules() {
+    }
+
+    public InjectionRules before(String delimiter, String injection) {
+        return before(delimiter.getBytes(), injection.getBytes());
+    }
+
+    /**
+     * Encodes the delimiter and the injection with {@code charset} rather than the platform
+     * default, see {@link InjectingStreams#injectBeforeOutput(OutputStream, String, String, Charset)}.
+     */
+    public InjectionRules before(String delimiter, String injection, Charset charset) {
+        return before(delimiter.getBytes(charset), injection.getBytes(charset));
+    }
+
+    public InjectionRules before(String delimiter, byte[] injection) {
+        return before(delimiter.getBytes(), injection);
+    }
+
+    public InjectionRules before(String delimiter, InputStream injection) {
+        return before(delimiter.getBytes(), injection);
+    }
+
+    public InjectionRules before(byte[] delimiter, String injection) {
+        return before(delimiter, injection.getBytes());
+    }
+
+    public InjectionRules before(byte[] delimiter, byte[] injection) {
+        byte[] copy = injection.clone();
+        return add(delimiter, true, () -> new ByteArrayInputStream(copy));
+    }
+
+    public InjectionRules before(byte[] delimiter, InputStream injection) {
+        return add(delimiter, true, () -> injection);
+    }
+
+    public InjectionRules after(String delimiter, String injection) {
+        return after(delimiter.getBytes(), injection.getBytes());
+    }
+
+    public InjectionRules after(String delimiter, String injection, Charset charset) {
+        return after(delimiter.getBytes(charset), injection.getBytes(charset));
+    }
+
+    public InjectionRules after(String delimiter, byte[] injection) {
+        return after(delimiter.getBytes(), injection);
+    }
+
+    public InjectionRules after(String delimiter, InputStream injection) {
+        return after(delimiter.getBytes(), injection);
+    }
+
+    public InjectionRules after(byte[] delimiter, String injection) {
+        return after(delimiter, injection.getBytes());
+    }
+
+    public InjectionRules after(byte[] delimiter, byte[] injection) {
+        byte[] copy = injection.clone();
+        return add(delimiter, false, () -> new ByteArrayInputStream(copy));
+    }
+
+    public InjectionRules after(byte[] delimiter, InputStream injection) {
+        return add(delimiter, false, () -> injection);
+    }
+
+    private InjectionRules add(byte[] delimiter, boolean before, Supplier<InputStream> injection) {
+        if (delimiter.length == 0) {
+            throw new IllegalArgumentException("The delimiter must contain at least one byte.");
+        }
+        delimiters.add(delimiter.clone());
+        positions.add(before);
+        injections.add(injection);
+        compiled = null;
+        return this;
+    }
+
+    /**
+     * @return an output stream that applies every rule to the bytes written to it before
+     * passing them on to {@code out}.
+     */
+    public OutputStream wrap(OutputStream out) {
+        if (delimiters.isEmpty()) {
+            throw new IllegalStateException("At least one rule is required.");
+        }
+        if (compiled == null) {
+            compiled = new DelimiterMatcher(delimiters.toArray(new byte[0][]));
+        }
+        boolean[] before = new boolean[positions.size()];
+        InputStream[] streams = new InputStream[injections.size()];
+        for (int i = 0; i < streams.length; i++) {
+            before[i] = positions.get(i);
+            streams[i] = injections.get(i).get();
+        }
+        return new MultiDelimiterInjectingOutputStream(out, compiled, before, streams);
+    }
+
+}
@@ -0,0 +1,464 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.function.Supplier;
+
+
+/**
+ * A precompiled description of an injection that can mint any number of injecting streams.
+ * <p>
+ * The delimiter and the injection are encoded and the delimiter's automaton is built once,
+ * when the spec is created. Creating a stream from a spec allocates nothing but the stream
+ * itself, and the injection is written with a single call to the sink. Output streams may also
+ * be pooled and pointed at a new sink with {@link InjectingOutputStream#reset(OutputStream)}.
+ * Besides injecting before or after the delimiter a spec can {@link #replace(String, String)} or
+ * {@link #remove(String)} it. Options such as {@link #coalescing(int, CoalescingPolicy)} and {@link #scanLimit(long)} return a
+ * modified copy and apply to the output streams.
+ * <p>
+ * <pre>{@code
+ * static final InjectionSpec SNIPPET = InjectionSpec.before("</body>", "<script src='app.js'></script>");
+ *
+ * try (OutputStream out = SNIPPET.wrap(response.getOutputStream())) {
+ *     ...
+ * }
+ * }</pre>
+ * <p>
+ * Instances are immutable and thread safe.
+ */
+public final class InjectionSpec {
+
+    private final DelimiterMatcher matcher;
+    private final Injection injection;
+    private final boolean before;
+    // false when the injection replaces the delimiter
+    private final boolean retain;
+    private final Options options;
+
+    private InjectionSpec(Delimiter delimiter, Injection injection, boolean before, boolean retain) {
+        this.matcher = delimiter.matcher();
+        this.injection = injection;
+        this.before = before;
+        this.retain = retain;
+        this.options = Options.DEFAULT;
+    }
+
+    private InjectionSpec(InjectionSpec spec, Options options) {
+        this.matcher = spec.matcher;
+        this.injection = spec.injection;
+        this.before = spec.before;
+        this.retain = spec.retain;
+        this.options = options;
+    }
+
+    public static InjectionSpec before(String delimiter, String injection) {
+        return before(delimiter.getBytes(), injection.getBytes());
+    }
+
+    /**
+     * Encodes the delimiter and the injection with {@code charset} rather than the platform
+     * default, see {@link InjectingStreams#injectBeforeOutput(OutputStream, String, String, Charset)}.
+     */
+    public static InjectionSpec before(String delimiter, String injection, Charset charset) {
+        return before(delimiter.getBytes(charset), injection.getBytes(charset));
+    }
+
+    public static InjectionSpec before(String delimiter, byte[] injection) {
+        return before(delimiter.getBytes(), injection);
+    }
+
+    public static InjectionSpec before(byte[] delimiter, String injection) {
+        return before(delimiter, injection.getBytes());
+    }
+
+    public static InjectionSpec before(byte[] delimiter, byte[] injection) {
+        return before(Delimiter.literal(delimiter), injection);
+    }
+
+    public static InjectionSpec before(String delimiter, ByteBuffer injection) {
+        return before(delimiter.getBytes(), injection);
+    }
+
+    /**
+     * Copies the remaining bytes of {@code injection} without moving its position.
+     */
+    public static InjectionSpec before(byte[] delimiter, ByteBuffer injection) {
+        return before(Delimiter.literal(delimiter), injection);
+    }
+
+    public static InjectionSpec before(String delimiter, Supplier<? extends InputStream> injection) {
+        return before(delimiter.getBytes(), injection);
+    }
+
+    /**
+     * Reads the injection from a new stream every time it is written, and closes that stream
+     * afterwards.
+     */
+    public static InjectionSpec before(byte[] delimiter, Supplier<? extends InputStream> injection) {
+        return before(Delimiter.literal(delimiter), injection);
+    }
+
+    public static InjectionSpec before(Delimiter delimiter, String injection) {
+        return before(delimiter, injection.getBytes());
+    }
+
+    public static InjectionSpec before(Delimiter delimiter, byte[] injection) {
+        return new InjectionSpec(delimiter, Injection.of(injection.clone()), true, true);
+    }
+
+    public static InjectionSpec before(Delimiter delimiter, ByteBuffer injection) {
+        return new InjectionSpec(delimiter, Injection.of(injection), true, true);
+    }
+
+    public static InjectionSpec before(Delimiter delimiter, Supplier<? extends InputStream> injection) {
+        return new InjectionSpec(delimiter, Injection.of(injection), true, true);
+    }
+
+    /**
+     * Injects content that is still being resolved, for example by a cache lookup. Bytes
+     * preceding the delimiter stream out right away and only once the delimiter is reached the
+     * output streams wait for the content, see {@link #awaitInjection(int, Duration, byte[])}.
+     * A {@link Supplier} can be resolved in the background with
+     * {@link java.util.concurrent.CompletableFuture#supplyAsync(Supplier)}.
+     */
+    public static InjectionSpec before(String delimiter, CompletionStage<byte[]> injection) {
+        return before(Delimiter.literal(delimiter), injection);
+    }
+
+    public static InjectionSpec before(byte[] delimiter, CompletionStage<byte[]> injection) {
+        return before(Delimiter.literal(delimiter), injection);
+    }
+
+    public static InjectionSpec before(Delimiter delimiter, CompletionStage<byte[]> injection) {
+        return new InjectionSpec(delimiter, Injection.of(injection), true, true);
+    }
+
+    public static InjectionSpec after(String delimiter, String injection) {
+        return after(delimiter.getBytes(), injection.getBytes());
+    }
+
+    public static InjectionSpec after(String delimiter, String injection, Charset charset) {
+        return after(delimiter.getBytes(charset), injection.getBytes(charset));
+    }
+
+    public static InjectionSpec after(String delimiter, byte[] injection) {
+        return after(delimiter.getBytes(), injection);
+    }
+
+    public static InjectionSpec after(byte[] delimiter, String injection) {
+        return after(delimiter, injection.getBytes());
+    }
+
+    public static InjectionSpec after(byte[] delimiter, byte[] injection) {
+        return after(Delimiter.literal(delimiter), injection);
+    }
+
+    public static InjectionSpec after(String delimiter, ByteBuffer injection) {
+        return after(delimiter.getBytes(), injection);
+    }
+
+    /**
+     * Copies the remaining bytes of {@code injection} without moving its position.
+     */
+    public static InjectionSpec after(byte[] delimiter, ByteBuffer injection) {
+        return after(Delimiter.literal(delimiter), injection);
+    }
+
+    public static InjectionSpec after(String delimiter, Supplier<? extends InputStream> injection) {
+        return after(delimiter.getBytes(), injection);
+    }
+
+    /**
+     * Reads the injection from a new stream every time it is written, and closes that stream
+     * afterwards.
+     */
+    public static InjectionSpec after(byte[] delimiter, Supplier<? extends InputStream> injection) {
+        return after(Delimiter.literal(delimiter), injection);
+    }
+
+    public static InjectionSpec after(Delimiter delimiter, String injection) {
+        return after(delimiter, injection.getBytes());
+    }
+
+    public static InjectionSpec after(Delimiter delimiter, byte[] injection) {
+        return new InjectionSpec(delimiter, Injection.of(injection.clone()), false, true);
+    }
+
+    public static InjectionSpec after(Delimiter delimiter, ByteBuffer injection) {
+        return new InjectionSpec(delimiter, Injection.of(injection), false, true);
+    }
+
+    public static InjectionSpec after(Delimiter delimiter, Supplier<? extends InputStream> injection) {
+        return new InjectionSpec(delimiter, Injection.of(injection), false, true);
+    }
+
+    /**
+     * The same as {@link #before(String, CompletionStage)}, injecting after the delimiter.
+     */
+    public static InjectionSpec after(String delimiter, CompletionStage<byte[]> injection) {
+        return after(Delimiter.literal(delimiter), injection);
+    }
+
+    public static InjectionSpec after(byte[] delimiter, CompletionStage<byte[]> injection) {
+        return after(Delimiter.literal(delimiter), injection);
+    }
+
+    public static InjectionSpec after(Delimiter delimiter, CompletionStage<byte[]> injection) {
+        return new InjectionSpec(delimiter, Injection.of(injection), false, true);
+    }
+
+    public static InjectionSpec replace(String delimiter, String replacement) {
+        return replace(delimiter.getBytes(), replacement.getBytes());
+    }
+
+    public static InjectionSpec replace(String delimiter, String replacement, Charset charset) {
+        return replace(delimiter.getBytes(charset), replacement.getBytes(charset));
+    }
+
+    public static InjectionSpec replace(String delimiter, byte[] replacement) {
+        return replace(delimiter.getBytes(), replacement);
+    }
+
+    public static InjectionSpec replace(byte[] delimiter, String replacement) {
+        return replace(delimiter, replacement.getBytes());
+    }
+
+    /**
+     * Writes the replacement in place of the delimiter. The output streams hold back no more
+     * than a partial delimiter, however large the body.
+     */
+    public static InjectionSpec replace(byte[] delimiter, byte[] replacement) {
+        return replace(Delimiter.literal(delimiter), replacement);
+    }
+
+    public static InjectionSpec replace(String delimiter, ByteBuffer replacement) {
+        return replace(delimiter.getBytes(), replacement);
+    }
+
+    public static InjectionSpec replace(byte[] delimiter, ByteBuffer replacement) {
+        return replace(Delimiter.literal(delimiter), replacement);
+    }
+
+    public static InjectionSpec replace(String delimiter, Supplier<? extends InputStream> replacement) {
+        return replace(delimiter.getBytes(), replacement);
+    }
+
+    public static InjectionSpec replace(byte[] delimiter, Supplier<? extends InputStream> replacement) {
+        return replace(Delimiter.literal(delimiter), replacement);
+    }
+
+    public static InjectionSpec replace(Delimiter delimiter, String replacement) {
+        return replace(delimiter, replacement.getBytes());
+    }
+
+    public static InjectionSpec replace(Delimiter delimiter, byte[] replacement) {
+        return new InjectionSpec(delimiter, Injection.of(replacement.clone()), true, false);
+    }
+
+    public static InjectionSpec replace(Delimiter delimiter, ByteBuffer replacement) {
+        return new InjectionSpec(delimiter, Injection.of(replacement), true, false);
+    }
+
+    public static InjectionSpec replace(Delimiter delimiter, Supplier<? extends InputStream> replacement) {
+        return new InjectionSpec(delimiter, Injection.of(replacement), true, false);
+    }
+
+    public static InjectionSpec replace(String delimiter, CompletionStage<byte[]> replacement) {
+        return replace(Delimiter.literal(delimiter), replacement);
+    }
+
+    public static InjectionSpec replace(byte[] delimiter, CompletionStage<byte[]> replacement) {
+        return replace(Delimiter.literal(delimiter), replacement);
+    }
+
+    public static InjectionSpec replace(Delimiter delimiter, CompletionStage<byte[]> replacement) {
+        return new InjectionSpec(delimiter, Injection.of(replacement), true, false);
+    }
+
+    public static InjectionSpec remove(String delimiter) {
+        return remove(delimiter.getBytes());
+    }
+
+    public static InjectionSpec remove(String delimiter, Charset charset) {
+        return remove(delimiter.getBytes(charset));
+    }
+
+    /**
+     * Strips the delimiter.
+     */
+    public static InjectionSpec remove(byte[] delimiter) {
+        return replace(delimiter, new byte[0]);
+    }
+
+    public static InjectionSpec remove(Delimiter delimiter) {
+        return replace(delimiter, new byte[0]);
+    }
+
+    /**
+     * Gathers the fragments the output streams produce (released partial matches, the
+     * injection, the delimiter and the remainder of a write) in a buffer of {@code bufferSize}
+     * bytes, so that an unbuffered sink such as a socket or a compressor sees few, large writes.
+     * With {@link CoalescingPolicy#EACH_WRITE} every write becomes at most one write to the sink
+     * in steady state. Flushing and closing behave exactly as they would without the buffer.
+     *
+     * @return a copy of this spec whose output streams coalesce their writes.
+     */
+    public InjectionSpec coalescing(int bufferSize, CoalescingPolicy policy) {
+        return new InjectionSpec(this, options.coalescing(bufferSize, policy));
+    }
+
+    /**
+     * Stops looking for the delimiter once {@code maxBytes} bytes have been written without it,
+     * much like a browser only sniffs the start of a document. From then on the output stream
+     * releases anything it held back and passes every write straight through, and
+     * {@link InjectingOutputStream#isSkipped()} reports that nothing was injected. The limit
+     * only bounds the search for the first occurrence, so with {@link #occurrences(Occurrences)}
+     * later ones are found however far into the body they are, even when the first occurrence is
+     * not one that is injected.
+     *
+     * @return a copy of this spec whose output streams give up after {@code maxBytes} bytes.
+     */
+    public InjectionSpec scanLimit(long maxBytes) {
+        return scanLimit(maxBytes, null);
+    }
+
+    /**
+     * The same as {@link #scanLimit(long)}, additionally running {@code onSkipped} on the
+     * writing thread whenever a stream gives up, for example to log it.
+     */
+    public InjectionSpec scanLimit(long maxBytes, Runnable onSkipped) {
+        return new InjectionSpec(this, options.scanLimit(maxBytes, onSkipped));
+    }
+
+    /**
+     * Chooses the occurrences of the delimiter at which the output streams inject, for example
+     * {@link Occurrences#all()} to inject before every record separator of an export. Every mode
+     * is a single pass over the bytes in constant memory. Input streams always inject at the
+     * first occurrence.
+     *
+     * @return a copy of this spec whose output streams inject at the given occurrences.
+     */
+    public InjectionSpec occurrences(Occurrences occurrences) {
+        return new InjectionSpec(this, options.occurrences(occurrences));
+    }
+
+    /**
+     * Reports what the output streams do with each body, such as how far into it the delimiter
+     * was found and how long writing the injection took, see {@link InjectionMetrics} for an
+     * aggregate. Without a listener the streams do no bookkeeping at all.
+     *
+     * @return a copy of this spec whose output streams report to {@code listener}.
+     */
+    public InjectionSpec listener(InjectionListener listener) {
+        return new InjectionSpec(this, options.listener(listener));
+    }
+
+    /**
+     * Chooses how output streams wait for content that is still being resolved once they reach
+     * the delimiter, see {@link #before(String, CompletionStage)}. Instead of blocking right
+     * away they keep accepting writes and hold back up to {@code maxBufferedBytes} of them, so
+     * a slow injection only stalls the writer when the body outruns it. Once the buffer is full,
+     * even in the middle of a single write, on flush and on close the stream blocks until the content is resolved or until
+     * {@code timeout} has passed since the delimiter was reached, and then writes
+     * {@code fallback} in its place. By default nothing is buffered and the streams wait as long
+     * as it takes.
+     *
+     * @return a copy of this spec whose output streams wait for the injection as given.
+     */
+    public InjectionSpec awaitInjection(int maxBufferedBytes, Duration timeout, byte[] fallback) {
+        return new InjectionSpec(this, options.await(maxBufferedBytes, timeout, fallback));
+    }
+
+    /**
+     * The same as {@link #awaitInjection(int, Duration, byte[])}, injecting nothing after the
+     * timeout.
+     */
+    public InjectionSpec awaitInjection(int maxBufferedBytes, Duration timeout) {
+        return awaitInjection(maxBufferedBytes, timeout, new byte[0]);
+    }
+
+    /**
+     * Chooses the compression levels of {@link #wrapGzip(OutputStream)} and
+     * {@link #wrapDeflate(OutputStream)}, from {@link java.util.zip.Deflater#DEFAULT_COMPRESSION}
+     * to {@link java.util.zip.Deflater#BEST_COMPRESSION}. Everything up to the injection is
+     * compressed at {@code level} and the remainder at {@code levelAfterInjection}, which
+     * defaults to {@link java.util.zip.Deflater#BEST_SPEED}.
+     * {@link java.util.zip.Deflater#NO_COMPRESSION} sends the remainder as stored blocks.
+     *
+     * @return a copy of this spec whose compressed output streams use the given levels.
+     */
+    public InjectionSpec compressionLevels(int level, int levelAfterInjection) {
+        return new InjectionSpec(this, options.compression(level, levelAfterInjection));
+    }
+
+    /**
+     * @return an output stream that accepts a gzip compressed body, injects into the bytes it
+     * decompresses and passes them on to {@code out} compressed again. Concatenated gzip members
+     * are accepted and recompressed as one.
+     * @throws IOException if the gzip header cannot be written to {@code out}.
+     */
+    public OutputStream wrapGzip(OutputStream out) throws IOException {
+        return CompressedInjectingOutputStream.gzip(out, this::wrap, options.level, options.levelAfterInjection);
+    }
+
+    /**
+     * @return an output stream that accepts a zlib compressed body, the {@code deflate} content
+     * coding of HTTP, injects into the bytes it decompresses and passes them on to {@code out}
+     * compressed again.
+     */
+    public OutputStream wrapDeflate(OutputStream out) {
+        return CompressedInjectingOutputStream.deflate(out, this::wrap, options.level, options.levelAfterInjection);
+    }
+
+    /**
+     * @return an output stream that injects into the bytes written to it before passing them
+     * on to {@code out}.
+     */
+    public InjectingOutputStream wrap(OutputStream out) {
+        if (before) {
+            return new PreDelimiterInjectingOutputStream(out, matcher, injection, options, retain);
+        } else {
+            return new PostDelimiterInjectingOutputStream(out, matcher, injection, options);
+        }
+    }
+
+    /**
+     * @return an output stream like {@link #wrap(OutputStream)} that many threads may write to
+     * at once, see {@link ConcurrentInjectingOutputStream}.
+     */
+    public ConcurrentInjectingOutputStream wrapConcurrent(OutputStream out) {
+        return new ConcurrentInjectingOutputStream(wrap(out));
+    }
+
+    /**
+     * @return a processor that injects into the buffers it is subscribed to, honoring
+     * backpressure and emitting slices of the incoming buffers where it can. Each processor has a
+     * single subscriber and is used once.
+     */
+    public Flow.Processor<ByteBuffer, ByteBuffer> processor() {
+        // a processor must not block, so it holds back everything after a pending injection and
+        // pauses upstream rather than waiting once a buffer fills up
+        InjectionSpec deferring = new InjectionSpec(this,
+                options.await(Integer.MAX_VALUE, Duration.ofNanos(options.awaitNanos), options.fallback));
+        return new InjectingProcessor(deferring::wrap);
+    }
+
+    /**
+     * @return an input stream that injects into the bytes read from {@code in}.
+     */
+    public InputStream wrap(InputStream in) {
+        InputStream injection = this.injection.open();
+        if (before) {
+            return new PreDelimiterInjectingInputStream(in, matcher, injection, retain);
+        } else {
+            return new PostDelimiterInjectingInputStream(in, matcher, injection);
+        }
+    }
+
+}
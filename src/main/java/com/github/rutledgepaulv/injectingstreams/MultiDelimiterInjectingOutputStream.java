@@ -0,0 +1,179 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+
+/**
+ * An output stream that applies several injection rules in a single pass over the written
+ * bytes. Each rule injects a stream of bytes immediately preceding or following the first
+ * occurrence of its own delimiter. Occurrences are recognized in the order in which they end
+ * and never overlap, and once every rule has fired the stream becomes a plain passthrough.
+ * <p>
+ * Assumes a single writer (no synchronization)
+ */
+class MultiDelimiterInjectingOutputStream extends FilterOutputStream {
+
+    private final DelimiterMatcher matcher;
+    private final boolean[] before;
+    private final InputStream[] injections;
+    private final boolean[] injected;
+    private final byte[] single = new byte[1];
+    // copies the injections, only allocated once the first one is written
+    private byte[] buffer;
+    private int remaining;
+    private int state = 0;
+    // position within the bytes held back plus the current write that has been written out
+    private int cursor;
+
+    MultiDelimiterInjectingOutputStream(OutputStream out, DelimiterMatcher matcher, boolean[] before, InputStream[] injections) {
+        super(out);
+        this.matcher = matcher;
+        this.before = before;
+        this.injections = injections;
+        this.injected = new boolean[injections.length];
+        this.remaining = injections.length;
+    }
+
+    private void inject(int rule) throws IOException {
+        try (InputStream in = injections[rule]) {
+            if (buffer == null) {
+                buffer = new byte[4096];
+            }
+            int n;
+            while (-1 != (n = in.read(buffer))) {
+                out.write(buffer, 0, n);
+            }
+        } finally {
+            injected[rule] = true;
+            remaining--;
+        }
+    }
+
+    /**
+     * Writes the bytes from the cursor up to {@code to}, where positions count the bytes held back
+     * from earlier writes followed by the bytes of the current write.
+     */
+    private void advance(int to, int held, byte[] bytes, int off) throws IOException {
+        if (cursor < held) {
+            int end = Math.min(to, held);
+            out.write(matcher.prefix(state), cursor, end - cursor);
+            cursor = end;
+        }
+        if (to > cursor) {
+            out.write(bytes, off + cursor - held, to - cursor);
+            cursor = to;
+        }
+    }
+
+    /**
+     * Fires every live rule whose delimiter ends at {@code position}.
+     *
+     * @return true if at least one rule fired
+     */
+    private boolean fire(int[] rules, int position, int held, byte[] bytes, int off) throws IOException {
+        boolean fired = false;
+        // rules are ordered longest first, which is also the order of their starting positions
+        for (int rule : rules) {
+            if (!injected[rule] && before[rule]) {
+                advance(position - matcher.delimiter(rule).length, held, bytes, off);
+                inject(rule);
+                fired = true;
+            }
+        }
+        for (int rule : rules) {
+            if (!injected[rule] && !before[rule]) {
+                advance(position, held, bytes, off);
+                inject(rule);
+                fired = true;
+            }
+        }
+        return fired;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (remaining > 0) {
+            single[0] = (byte) b;
+            this.write(single, 0, 1);
+        } else {
+            out.write(b);
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes) throws IOException {
+        this.write(bytes, 0, bytes.length);
+    }
+
+    @Override
+    public void write(byte[] bytes, int off, int len) throws IOException {
+        if (remaining > 0) {
+            int end = off + len;
+            int held = matcher.depth(state);
+            int current = state;
+            int i = off;
+            cursor = 0;
+            while (i < end) {
+                if (current == 0 && (i = matcher.skip(bytes, i, end)) == end) {
+                    break;
+                }
+                current = matcher.next(current, bytes[i++]);
+                if (current < 0) {
+                    current = ~current;
+                    if (fire(matcher.matches(current), held + i - off, held, bytes, off)) {
+                        // occurrences never overlap, so start over after this one
+                        advance(held + i - off, held, bytes, off);
+                        current = 0;
+                        if (remaining == 0) {
+                            state = 0;
+                            if (i < end) {
+                                out.write(bytes, i, end - i);
+                            }
+                            return;
+                        }
+                    }
+                }
+            }
+            // hold back only the trailing bytes that could still begin a delimiter
+            advance(held + len - matcher.depth(current), held, bytes, off);
+            state = current;
+        } else {
+            out.write(bytes, off, len);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        int held = matcher.depth(state);
+        if (held > 0) {
+            out.write(matcher.prefix(state), 0, held);
+            state = 0;
+        }
+        try {
+            closeInjections();
+        } finally {
+            super.close();
+        }
+    }
+
+    private void closeInjections() throws IOException {
+        IOException failure = null;
+        for (InputStream injection : injections) {
+            try {
+                injection.close();
+            } catch (IOException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+}
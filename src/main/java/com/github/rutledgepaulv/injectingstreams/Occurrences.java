@@ -0,0 +1,87 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+
+/**
+ * Selects the occurrences of a delimiter at which an output stream injects. Occurrences are
+ * counted from one, in the order in which they end, and never overlap: after an occurrence the
+ * search starts over with the byte that follows it.
+ * <p>
+ * Modes that inject more than once write the injection every time, so they require a
+ * replayable injection such as an array of bytes, a buffer or a supplier of streams.
+ * <p>
+ * Instances are immutable and may be shared.
+ */
+public final class Occurrences {
+
+    private static final Occurrences FIRST = new Occurrences(1, 0);
+    private static final Occurrences ALL = new Occurrences(1, 1);
+
+    private final long first;
+    // zero when only the first selected occurrence is injected at
+    private final long period;
+
+    private Occurrences(long first, long period) {
+        this.first = first;
+        this.period = period;
+    }
+
+    /**
+     * Injects at the first occurrence only, which is what the streams do by default.
+     */
+    public static Occurrences first() {
+        return FIRST;
+    }
+
+    /**
+     * Injects at every occurrence.
+     */
+    public static Occurrences all() {
+        return ALL;
+    }
+
+    /**
+     * Injects at the {@code n}th occurrence only.
+     */
+    public static Occurrences nth(long n) {
+        if (n <= 0) {
+            throw new IllegalArgumentException("Occurrences are counted from one.");
+        }
+        return n == 1 ? FIRST : new Occurrences(n, 0);
+    }
+
+    /**
+     * Injects at every {@code k}th occurrence, that is at the {@code k}th, the {@code 2k}th and
+     * so on.
+     */
+    public static Occurrences every(long k) {
+        if (k <= 0) {
+            throw new IllegalArgumentException("Occurrences are counted from one.");
+        }
+        return k == 1 ? ALL : new Occurrences(k, k);
+    }
+
+    /**
+     * @return true if the injection is written at the given occurrence.
+     */
+    boolean includes(long occurrence) {
+        if (occurrence == first) {
+            return true;
+        }
+        return period > 0 && occurrence > first && (occurrence - first) % period == 0;
+    }
+
+    /**
+     * @return true if no occurrence after the given one is included.
+     */
+    boolean isLast(long occurrence) {
+        return period == 0 && occurrence >= first;
+    }
+
+    /**
+     * @return true if the injection may be written more than once.
+     */
+    boolean repeats() {
+        return period > 0;
+    }
+
+}
@@ -0,0 +1,111 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.zip.Deflater;
+
+
+/**
+ * Optional behavior shared by the injecting output streams. Immutable, every change returns a
+ * copy.
+ */
+final class Options {
+
+    static final Options DEFAULT = new Options(0, CoalescingPolicy.EACH_WRITE, Long.MAX_VALUE, null, Occurrences.first(),
+            Deflater.DEFAULT_COMPRESSION, Deflater.BEST_SPEED, 0, Long.MAX_VALUE, new byte[0], null);
+
+    final int bufferSize;
+    final CoalescingPolicy policy;
+    final long scanLimit;
+    final Runnable onSkipped;
+    final Occurrences occurrences;
+    final int level;
+    final int levelAfterInjection;
+    final int awaitBuffer;
+    final long awaitNanos;
+    final byte[] fallback;
+    final InjectionListener listener;
+
+    private Options(int bufferSize, CoalescingPolicy policy, long scanLimit, Runnable onSkipped, Occurrences occurrences,
+                    int level, int levelAfterInjection, int awaitBuffer, long awaitNanos, byte[] fallback,
+                    InjectionListener listener) {
+        this.bufferSize = bufferSize;
+        this.policy = policy;
+        this.scanLimit = scanLimit;
+        this.onSkipped = onSkipped;
+        this.occurrences = occurrences;
+        this.level = level;
+        this.levelAfterInjection = levelAfterInjection;
+        this.awaitBuffer = awaitBuffer;
+        this.awaitNanos = awaitNanos;
+        this.fallback = fallback;
+        this.listener = listener;
+    }
+
+    Options coalescing(int bufferSize, CoalescingPolicy policy) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("The buffer size must be positive.");
+        }
+        if (policy == null) {
+            throw new IllegalArgumentException("A coalescing policy is required.");
+        }
+        return new Options(bufferSize, policy, scanLimit, onSkipped, occurrences, level, levelAfterInjection,
+                awaitBuffer, awaitNanos, fallback, listener);
+    }
+
+    Options scanLimit(long scanLimit, Runnable onSkipped) {
+        if (scanLimit <= 0) {
+            throw new IllegalArgumentException("The scan limit must be positive.");
+        }
+        return new Options(bufferSize, policy, scanLimit, onSkipped, occurrences, level, levelAfterInjection,
+                awaitBuffer, awaitNanos, fallback, listener);
+    }
+
+    Options occurrences(Occurrences occurrences) {
+        if (occurrences == null) {
+            throw new IllegalArgumentException("The occurrences are required.");
+        }
+        return new Options(bufferSize, policy, scanLimit, onSkipped, occurrences, level, levelAfterInjection,
+                awaitBuffer, awaitNanos, fallback, listener);
+    }
+
+    Options compression(int level, int levelAfterInjection) {
+        if (!isLevel(level) || !isLevel(levelAfterInjection)) {
+            throw new IllegalArgumentException("Compression levels range from -1 to 9.");
+        }
+        return new Options(bufferSize, policy, scanLimit, onSkipped, occurrences, level, levelAfterInjection,
+                awaitBuffer, awaitNanos, fallback, listener);
+    }
+
+    Options await(int awaitBuffer, Duration timeout, byte[] fallback) {
+        if (awaitBuffer < 0) {
+            throw new IllegalArgumentException("The buffer size must not be negative.");
+        }
+        if (timeout.isNegative()) {
+            throw new IllegalArgumentException("The timeout must not be negative.");
+        }
+        if (fallback == null) {
+            throw new IllegalArgumentException("A fallback is required.");
+        }
+        long awaitNanos = timeout.compareTo(Duration.ofNanos(Long.MAX_VALUE)) < 0 ? timeout.toNanos() : Long.MAX_VALUE;
+        return new Options(bufferSize, policy, scanLimit, onSkipped, occurrences, level, levelAfterInjection,
+                awaitBuffer, awaitNanos, fallback.clone(), listener);
+    }
+
+    Options listener(InjectionListener listener) {
+        return new Options(bufferSize, policy, scanLimit, onSkipped, occurrences, level, levelAfterInjection,
+                awaitBuffer, awaitNanos, fallback, listener);
+    }
+
+    private static boolean isLevel(int level) {
+        return level >= Deflater.DEFAULT_COMPRESSION && level <= Deflater.BEST_COMPRESSION;
+    }
+
+    /**
+     * @return the stream an injecting stream should write to for the given sink.
+     */
+    OutputStream sink(OutputStream out) {
+        return bufferSize > 0 ? new CoalescingOutputStream(out, bufferSize, policy) : out;
+    }
+
+}
@@ -0,0 +1,82 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * A channel that injects content immediately following the first series of delimiter bytes.
+ * <p>
+ * Buffers are scanned and forwarded in place, so direct buffers never get copied to the heap.
+ * A {@link java.nio.channels.FileChannel} injection is moved with
+ * {@link java.nio.channels.FileChannel#transferTo}. A {@link ByteBuffer} injection is written
+ * from a duplicate, so the caller's buffer position is left alone.
+ * <p>
+ * Assumes a single writer (no synchronization)
+ */
+public class PostDelimiterInjectingChannel extends AbstractInjectingChannel {
+
+    private int matched = 0;
+
+    public PostDelimiterInjectingChannel(WritableByteChannel out, String delimiter, String injection) {
+        this(out, delimiter.getBytes(), injection.getBytes());
+    }
+
+    public PostDelimiterInjectingChannel(WritableByteChannel out, String delimiter, byte[] injection) {
+        this(out, delimiter.getBytes(), injection);
+    }
+
+    public PostDelimiterInjectingChannel(WritableByteChannel out, String delimiter, ByteBuffer injection) {
+        this(out, delimiter.getBytes(), injection);
+    }
+
+    public PostDelimiterInjectingChannel(WritableByteChannel out, String delimiter, ReadableByteChannel injection) {
+        this(out, delimiter.getBytes(), injection);
+    }
+
+    public PostDelimiterInjectingChannel(WritableByteChannel out, byte[] delimiter, String injection) {
+        this(out, delimiter, injection.getBytes());
+    }
+
+    public PostDelimiterInjectingChannel(WritableByteChannel out, byte[] delimiter, byte[] injection) {
+        this(out, delimiter, ByteBuffer.wrap(injection));
+    }
+
+    public PostDelimiterInjectingChannel(WritableByteChannel out, byte[] delimiter, ByteBuffer injection) {
+        super(out, delimiter, injection);
+    }
+
+    public PostDelimiterInjectingChannel(WritableByteChannel out, byte[] delimiter, ReadableByteChannel injection) {
+        super(out, delimiter, injection);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        int count = src.remaining();
+        if (!injected) {
+            int from = src.position();
+            int end = src.limit();
+            int state = matched;
+            int i = from;
+            while (i < end) {
+                if (state == 0 && (i = matcher.skip(src, i, end)) == end) {
+                    break;
+                }
+                state = matcher.next(state, src.get(i++));
+                if (state < 0) {
+                    matched = 0;
+                    writeRange(src, from, i);
+                    inject();
+                    writeRange(src, i, end);
+                    return count;
+                }
+            }
+            matched = state;
+        }
+        writeFully(src);
+        return count;
+    }
+}
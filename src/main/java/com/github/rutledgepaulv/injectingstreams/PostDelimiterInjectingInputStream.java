@@ -0,0 +1,76 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+
+/**
+ * An input stream that injects a stream of bytes immediately following the first series of
+ * delimiter bytes read from the underlying stream.
+ * <p>
+ * Bytes are scanned in place in the caller's buffer. Once the injection has been read the
+ * remainder of the underlying stream is passed through untouched.
+ * <p>
+ * Assumes a single reader (no synchronization)
+ */
+public class PostDelimiterInjectingInputStream extends AbstractInjectingInputStream {
+
+    private final DelimiterMatcher matcher;
+    private int matched = 0;
+
+    public PostDelimiterInjectingInputStream(InputStream in, String delimiter, String injection) {
+        this(in, delimiter.getBytes(), injection.getBytes());
+    }
+
+    public PostDelimiterInjectingInputStream(InputStream in, String delimiter, byte[] injection) {
+        this(in, delimiter.getBytes(), injection);
+    }
+
+    public PostDelimiterInjectingInputStream(InputStream in, String delimiter, InputStream injection) {
+        this(in, delimiter.getBytes(), injection);
+    }
+
+    public PostDelimiterInjectingInputStream(InputStream in, byte[] delimiter, String injection) {
+        this(in, delimiter, injection.getBytes());
+    }
+
+    public PostDelimiterInjectingInputStream(InputStream in, byte[] delimiter, byte[] injection) {
+        this(in, delimiter, new ByteArrayInputStream(injection));
+    }
+
+    public PostDelimiterInjectingInputStream(InputStream in, byte[] delimiter, InputStream injection) {
+        this(in, new DelimiterMatcher(delimiter), injection);
+    }
+
+    PostDelimiterInjectingInputStream(InputStream in, DelimiterMatcher matcher, InputStream injection) {
+        super(in, injection);
+        this.matcher = matcher;
+    }
+
+    @Override
+    int scan(byte[] b, int off, int len) throws IOException {
+        int n = in.read(b, off, len);
+        if (n <= 0) {
+            return n;
+        }
+        int end = off + n;
+        int state = matched;
+        int i = off;
+        while (i < end) {
+            if (state == 0 && (i = matcher.skip(b, i, end)) == end) {
+                break;
+            }
+            state = matcher.next(state, b[i++]);
+            if (state < 0) {
+                matched = 0;
+                // the bytes past the delimiter belong after the injection
+                inject(Arrays.copyOfRange(b, i, end), 0, end - i);
+                return i - off;
+            }
+        }
+        matched = state;
+        return n;
+    }
+}
@@ -5,16 +5,13 @@ import java.io.*;
 
 /**
  * An output stream that injects a stream of bytes immediately following the first series of
- * delimiter bytes.
+ * delimiter bytes, or the occurrences chosen with {@link InjectionSpec#occurrences(Occurrences)}.
  *
  * Assumes a single writer (no synchronization)
  */
-public class PostDelimiterInjectingOutputStream extends FilterOutputStream {
+public class PostDelimiterInjectingOutputStream extends InjectingOutputStream {
 
-    private final InputStream injection;
-    private boolean injected = false;
-    private int bufferPos = 0;
-    private final byte[] delimiter;
+    private int matched = 0;
 
     public PostDelimiterInjectingOutputStream(OutputStream out, String delimiter, String injection) {
         this(out, delimiter.getBytes(), injection.getBytes());
@@ -33,84 +30,86 @@ public class PostDelimiterInjectingOutputStream extends FilterOutputStream {
     }
 
     public PostDelimiterInjectingOutputStream(OutputStream out, byte[] delimiter, byte[] injection) {
-        this(out, delimiter, new ByteArrayInputStream(injection));
+        this(out, new DelimiterMatcher(delimiter), Injection.of(injection), Options.DEFAULT);
     }
 
     public PostDelimiterInjectingOutputStream(OutputStream out, byte[] delimiter, InputStream injection) {
-        super(out);
-        this.delimiter = delimiter;
-        this.injection = injection;
+        this(out, new DelimiterMatcher(delimiter), Injection.of(injection), Options.DEFAULT);
     }
 
-    private void inject() throws IOException {
-        try (InputStream in = this.injection) {
-            byte[] buffer = new byte[4096];
-            int n;
-            while (-1 != (n = in.read(buffer))) {
-                out.write(buffer, 0, n);
-            }
-        } finally {
-            injected = true;
-        }
-    }
-
-    private boolean check(byte b) {
-        int pos = bufferPos;
-        if (delimiter[pos] == b) {
-            if (pos == (delimiter.length - 1)) {
-                bufferPos = 0;
-                return true;
-            } else {
-                bufferPos = pos + 1;
-            }
-        } else {
-            bufferPos = 0;
-        }
-        return false;
+    PostDelimiterInjectingOutputStream(OutputStream out, DelimiterMatcher matcher, Injection injection, Options options) {
+        super(out, matcher, injection, options);
     }
 
     @Override
-    public void write(int b) throws IOException {
+    void process(int b) throws IOException {
         out.write(b);
-        if (!injected) {
-            if (check((byte) b)) {
-                inject();
+        if (!passthrough) {
+            int state = matcher.next(matched, (byte) b);
+            if (state < 0) {
+                matched = 0;
+                if (occurred()) {
+                    // counts the last byte of the delimiter, the limit no longer applies anyway
+                    scanned(1);
+                    inject(0);
+                    return;
+                }
+            } else {
+                matched = state;
+            }
+            if (scanned(1)) {
+                matched = 0;
+                skip();
             }
         }
     }
 
     @Override
-    public void write(byte[] bytes) throws IOException {
-        this.write(bytes, 0, bytes.length);
-    }
-
-    @Override
-    public void write(byte[] bytes, int off, int len) throws IOException {
-        if (!injected) {
-            for (int i = off; i < len; i++) {
-                byte bite = bytes[i];
-                if (check(bite)) {
-                    int preLength = i - off + 1;
-                    out.write(bytes, off, preLength);
-                    inject();
-                    int nextIndex = i + 1;
-                    if (nextIndex < len) {
-                        int postLength = (len - nextIndex);
-                        out.write(bytes, nextIndex, postLength);
+    void process(byte[] bytes, int off, int len) throws IOException {
+        if (!passthrough) {
+            int end = off + len;
+            int stop = scanEnd(off, len);
+            int state = matched;
+            int i = off;
+            while (i < stop) {
+                if (state == 0 && (i = matcher.skip(bytes, i, stop)) == stop) {
+                    break;
+                }
+                state = matcher.next(state, bytes[i++]);
+                if (state < 0) {
+                    state = 0;
+                    if (occurred()) {
+                        scanned(i - off);
+                        out.write(bytes, off, i - off);
+                        inject(0);
+                        // carry on with the rest of the write as if it were a new one
+                        off = i;
+                        if (passthrough) {
+                            break;
+                        }
                     }
-                    return;
+                    stop = scanEnd(i, end - i);
+                }
+            }
+            if (passthrough) {
+                matched = 0;
+                if (off < end) {
+                    out.write(bytes, off, end - off);
                 }
+                return;
             }
+            matched = state;
+            if (scanned(stop - off)) {
+                matched = 0;
+                skip();
+            }
+            len = end - off;
         }
         out.write(bytes, off, len);
     }
 
     @Override
-    public void close() throws IOException {
-        try {
-            injection.close();
-        } finally {
-            super.close();
-        }
+    void clear() {
+        matched = 0;
     }
 }
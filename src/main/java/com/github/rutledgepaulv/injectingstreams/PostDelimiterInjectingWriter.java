@@ -0,0 +1,59 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+
+/**
+ * A writer that injects a series of chars immediately following the first occurrence of the
+ * delimiter.
+ * <p>
+ * Assumes a single writer (no synchronization)
+ */
+public class PostDelimiterInjectingWriter extends InjectingWriter {
+
+    private int matched = 0;
+
+    public PostDelimiterInjectingWriter(Writer out, String delimiter, String injection) {
+        super(out, delimiter, injection);
+    }
+
+    public PostDelimiterInjectingWriter(Writer out, String delimiter, Reader injection) {
+        super(out, delimiter, injection);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        out.write(c);
+        if (!injected) {
+            matched = matcher.next(matched, (char) c);
+            if (matched == matcher.length()) {
+                inject();
+            }
+        }
+    }
+
+    @Override
+    public void write(char[] chars, int off, int len) throws IOException {
+        if (!injected) {
+            int end = off + len;
+            int state = matched;
+            int i = off;
+            while (i < end) {
+                if (state == 0 && (i = matcher.skip(chars, i, end)) == end) {
+                    break;
+                }
+                state = matcher.next(state, chars[i++]);
+                if (state == matcher.length()) {
+                    out.write(chars, off, i - off);
+                    inject();
+                    out.write(chars, i, end - i);
+                    return;
+                }
+            }
+            matched = state;
+        }
+        out.write(chars, off, len);
+    }
+}
@@ -0,0 +1,118 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+
+/**
+ * A channel that injects content immediately preceding the first series of delimiter bytes.
+ * <p>
+ * Buffers are scanned and forwarded in place, so direct buffers never get copied to the heap.
+ * Only a trailing partial match of the delimiter is held back between writes. A
+ * {@link java.nio.channels.FileChannel} injection is moved with
+ * {@link java.nio.channels.FileChannel#transferTo}. A {@link ByteBuffer} injection is written
+ * from a duplicate, so the caller's buffer position is left alone.
+ * <p>
+ * Assumes a single writer (no synchronization)
+ */
+public class PreDelimiterInjectingChannel extends AbstractInjectingChannel {
+
+    // the number of delimiter bytes currently held back, these are always
+    // the leading bytes of the delimiter itself so they need no buffer
+    private int matched = 0;
+
+    public PreDelimiterInjectingChannel(WritableByteChannel out, String delimiter, String injection) {
+        this(out, delimiter.getBytes(), injection.getBytes());
+    }
+
+    public PreDelimiterInjectingChannel(WritableByteChannel out, String delimiter, byte[] injection) {
+        this(out, delimiter.getBytes(), injection);
+    }
+
+    public PreDelimiterInjectingChannel(WritableByteChannel out, String delimiter, ByteBuffer injection) {
+        this(out, delimiter.getBytes(), injection);
+    }
+
+    public PreDelimiterInjectingChannel(WritableByteChannel out, String delimiter, ReadableByteChannel injection) {
+        this(out, delimiter.getBytes(), injection);
+    }
+
+    public PreDelimiterInjectingChannel(WritableByteChannel out, byte[] delimiter, String injection) {
+        this(out, delimiter, injection.getBytes());
+    }
+
+    public PreDelimiterInjectingChannel(WritableByteChannel out, byte[] delimiter, byte[] injection) {
+        this(out, delimiter, ByteBuffer.wrap(injection));
+    }
+
+    public PreDelimiterInjectingChannel(WritableByteChannel out, byte[] delimiter, ByteBuffer injection) {
+        super(out, delimiter, injection);
+    }
+
+    public PreDelimiterInjectingChannel(WritableByteChannel out, byte[] delimiter, ReadableByteChannel injection) {
+        super(out, delimiter, injection);
+    }
+
+    /**
+     * Writes the first {@code count} bytes of the held back delimiter prefix followed by
+     * the bytes of the current write.
+     */
+    private void release(int count, int held, ByteBuffer src, int from) throws IOException {
+        if (count > 0) {
+            writeDelimiter(Math.min(count, held));
+            if (count > held) {
+                writeRange(src, from, from + count - held);
+            }
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException {
+        ensureOpen();
+        int count = src.remaining();
+        if (!injected) {
+            int from = src.position();
+            int end = src.limit();
+            int held = matched;
+            int state = held;
+            int i = from;
+            while (i < end) {
+                // nothing is held while in the initial state, so jump ahead to the next candidate
+                if (state == 0 && (i = matcher.skip(src, i, end)) == end) {
+                    break;
+                }
+                state = matcher.next(state, src.get(i++));
+                if (state < 0) {
+                    matched = 0;
+                    // everything preceding the delimiter, whether held or part of this write
+                    release(held + i - from - matcher.length(), held, src, from);
+                    inject();
+                    writeDelimiter(matcher.length());
+                    writeRange(src, i, end);
+                    return count;
+                }
+            }
+            // hold back only the trailing bytes that could still begin the delimiter
+            release(held + count - state, held, src, from);
+            src.position(end);
+            matched = state;
+        } else {
+            writeFully(src);
+        }
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (isOpen() && matched > 0) {
+                writeDelimiter(matched);
+                matched = 0;
+            }
+        } finally {
+            super.close();
+        }
+    }
+}
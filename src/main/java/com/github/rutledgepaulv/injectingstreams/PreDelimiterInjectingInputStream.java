@@ -0,0 +1,138 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+
+/**
+ * An input stream that injects a stream of bytes immediately preceding the first series of
+ * delimiter bytes read from the underlying stream.
+ * <p>
+ * Bytes are scanned in place in the caller's buffer, holding back only a trailing partial
+ * match of the delimiter. Once the injection has been read the remainder of the underlying
+ * stream is passed through untouched.
+ * <p>
+ * Assumes a single reader (no synchronization)
+ */
+public class PreDelimiterInjectingInputStream extends AbstractInjectingInputStream {
+
+    private final DelimiterMatcher matcher;
+    // the trailing bytes that could still begin the delimiter
+    private byte[] hold = new byte[0];
+    private int held = 0;
+    private int state = 0;
+    // only used when the caller's buffer is too small to hold the held back bytes
+    private byte[] window;
+    // false when the injection replaces the delimiter
+    private final boolean retainDelimiter;
+
+    public PreDelimiterInjectingInputStream(InputStream in, String delimiter, String injection) {
+        this(in, delimiter.getBytes(), injection.getBytes());
+    }
+
+    public PreDelimiterInjectingInputStream(InputStream in, String delimiter, byte[] injection) {
+        this(in, delimiter.getBytes(), injection);
+    }
+
+    public PreDelimiterInjectingInputStream(InputStream in, String delimiter, InputStream injection) {
+        this(in, delimiter.getBytes(), injection);
+    }
+
+    public PreDelimiterInjectingInputStream(InputStream in, byte[] delimiter, String injection) {
+        this(in, delimiter, injection.getBytes());
+    }
+
+    public PreDelimiterInjectingInputStream(InputStream in, byte[] delimiter, byte[] injection) {
+        this(in, delimiter, new ByteArrayInputStream(injection));
+    }
+
+    public PreDelimiterInjectingInputStream(InputStream in, byte[] delimiter, InputStream injection) {
+        this(in, new DelimiterMatcher(delimiter), injection);
+    }
+
+    PreDelimiterInjectingInputStream(InputStream in, DelimiterMatcher matcher, InputStream injection) {
+        this(in, matcher, injection, true);
+    }
+
+    PreDelimiterInjectingInputStream(InputStream in, DelimiterMatcher matcher, InputStream injection, boolean retainDelimiter) {
+        super(in, injection);
+        this.matcher = matcher;
+        this.retainDelimiter = retainDelimiter;
+    }
+
+    @Override
+    int scan(byte[] b, int off, int len) throws IOException {
+        int held = this.held;
+        if (len <= held) {
+            // no room for a new byte behind the held ones, so go through a window of our own
+            if (window == null || window.length <= held) {
+                window = new byte[Math.max(4096, held * 2)];
+            }
+            int n = scan(window, 0, window.length);
+            if (n > 0) {
+                ready(window, 0, n);
+                return 0;
+            }
+            return n;
+        }
+
+        // leave room in front for the held back bytes
+        int n = in.read(b, off + held, len - held);
+        System.arraycopy(hold, 0, b, off, held);
+        if (n < 0) {
+            this.held = 0;
+            this.state = 0;
+            return held > 0 ? held : -1;
+        }
+
+        int end = off + held + n;
+        int state = this.state;
+        // no partial match begins before mark
+        int mark = off;
+        boolean tracking = !matcher.isBounded();
+        int i = off + held;
+        while (i < end) {
+            if (state == 0) {
+                if ((i = matcher.skip(b, i, end)) == end) {
+                    break;
+                }
+                mark = i;
+            }
+            state = matcher.next(state, b[i++]);
+            if (state < 0) {
+                this.held = 0;
+                this.state = 0;
+                // the delimiter, unless it is replaced, and everything past it belong after the injection
+                int start = i - matcher.matchLength(~state, b, off, i);
+                int resume = retainDelimiter ? start : i;
+                if (b == window) {
+                    inject(window, resume, end);
+                } else {
+                    inject(Arrays.copyOfRange(b, resume, end), 0, end - resume);
+                }
+                return start - off;
+            }
+            if (tracking) {
+                int depth = matcher.depth(state);
+                if (depth >= 0) {
+                    mark = i - depth;
+                }
+            }
+        }
+        // hold back only the trailing bytes that could still begin the delimiter
+        int keep = 0;
+        if (state != 0) {
+            int depth = matcher.depth(state);
+            keep = Math.min(depth >= 0 ? depth : end - mark, end - off);
+        }
+        if (keep > hold.length) {
+            hold = new byte[Math.max(keep, Math.max(16, hold.length * 2))];
+        }
+        System.arraycopy(b, end - keep, hold, 0, keep);
+        this.held = keep;
+        this.state = state;
+        return end - off - keep;
+    }
+}
@@ -1,20 +1,28 @@
 package com.github.rutledgepaulv.injectingstreams;
 
 import java.io.*;
+import java.util.Arrays;
 
 
 /**
  * An output stream that injects a stream of bytes immediately preceding the first series of
- * delimiter bytes.
+ * delimiter bytes, or the occurrences chosen with {@link InjectionSpec#occurrences(Occurrences)}.
+ * Streams created by {@link InjectionSpec#replace(String, String)} write the injection in place
+ * of the delimiter instead.
  * <p>
  * Assumes a single writer (no synchronization)
  */
-public class PreDelimiterInjectingOutputStream extends FilterOutputStream {
+public class PreDelimiterInjectingOutputStream extends InjectingOutputStream {
 
-    private final InputStream injection;
-    private boolean injected = false;
-    private final byte[] delimiter;
-    private int bufferOffset = 0;
+    private static final byte[] EMPTY = new byte[0];
+
+    // false when the injection replaces the delimiter
+    private final boolean retainDelimiter;
+    private byte[] single;
+    // the trailing bytes that could still begin the delimiter
+    private byte[] hold = EMPTY;
+    private int held = 0;
+    private int state = 0;
 
     public PreDelimiterInjectingOutputStream(OutputStream out, String delimiter, String injection) {
         this(out, delimiter.getBytes(), injection.getBytes());
@@ -33,123 +41,170 @@ public class PreDelimiterInjectingOutputStream extends FilterOutputStream {
     }
 
     public PreDelimiterInjectingOutputStream(OutputStream out, byte[] delimiter, byte[] injection) {
-        this(out, delimiter, new ByteArrayInputStream(injection));
+        this(out, new DelimiterMatcher(delimiter), Injection.of(injection), Options.DEFAULT);
     }
 
     public PreDelimiterInjectingOutputStream(OutputStream out, byte[] delimiter, InputStream injection) {
-        super(out);
-        this.delimiter = delimiter;
-        this.injection = injection;
+        this(out, new DelimiterMatcher(delimiter), Injection.of(injection), Options.DEFAULT);
     }
 
-    private void inject() throws IOException {
-        try (InputStream in = this.injection) {
-            byte[] buffer = new byte[4096];
-            int n;
-            while (-1 != (n = in.read(buffer))) {
-                out.write(buffer, 0, n);
-            }
-        } finally {
-            injected = true;
-            bufferOffset = 0;
-        }
+    PreDelimiterInjectingOutputStream(OutputStream out, DelimiterMatcher matcher, Injection injection, Options options) {
+        this(out, matcher, injection, options, true);
+    }
+
+    PreDelimiterInjectingOutputStream(OutputStream out, DelimiterMatcher matcher, Injection injection, Options options, boolean retainDelimiter) {
+        super(out, matcher, injection, options);
+        this.retainDelimiter = retainDelimiter;
     }
 
     private void drainBuffer() throws IOException {
-        if (bufferOffset > 0) {
-            out.write(delimiter, 0, bufferOffset);
-            bufferOffset = 0;
+        if (held > 0) {
+            out.write(hold, 0, held);
+            held = 0;
         }
+        state = 0;
     }
 
-    @Override
-    public void write(int b) throws IOException {
-        if (!injected) {
-            // if this byte is the next element of the delimiter
-            if (b == delimiter[bufferOffset]) {
-                // increment the buffer offset
-                bufferOffset++;
-                // if we've reached the end of the delimiter
-                if (bufferOffset == delimiter.length) {
-                    // inject the content
-                    inject();
-                    // inject the buffer
-                    out.write(delimiter);
-                }
-            } else {
-                // flush the pending buffer
-                this.drainBuffer();
-                // if this byte is the first element of another potential delimiter sequence
-                if (b == delimiter[bufferOffset]) {
-                    bufferOffset++;
-                } else {
-                    out.write(b);
-                }
-            }
+    /**
+     * Writes the bytes between two positions, where positions count the bytes held back from
+     * earlier writes followed by the bytes of the current write.
+     */
+    private void release(int from, int to, int held, byte[] bytes, int off) throws IOException {
+        if (from < held && from < to) {
+            int end = Math.min(to, held);
+            out.write(hold, from, end - from);
+            from = end;
+        }
+        if (from < to) {
+            out.write(bytes, off + from - held, to - from);
+        }
+    }
+
+    /**
+     * Holds back the bytes from {@code from} up to the end of the current write.
+     */
+    private void retain(int from, int held, byte[] bytes, int off, int len) {
+        int count = held + len - from;
+        if (count > hold.length) {
+            hold = Arrays.copyOf(hold, Math.max(count, Math.max(16, hold.length * 2)));
+        }
+        if (from < held) {
+            System.arraycopy(hold, from, hold, 0, held - from);
+            System.arraycopy(bytes, off, hold, held - from, len);
         } else {
-            out.write(b);
+            System.arraycopy(bytes, off + from - held, hold, 0, count);
         }
+        this.held = count;
     }
 
     @Override
-    public void write(byte[] bytes) throws IOException {
-        this.write(bytes, 0, bytes.length);
+    void process(int b) throws IOException {
+        if (!passthrough) {
+            if (single == null) {
+                single = new byte[1];
+            }
+            single[0] = (byte) b;
+            process(single, 0, 1);
+        } else {
+            out.write(b);
+        }
     }
 
     @Override
-    public void write(byte[] bytes, int off, int len) throws IOException {
-        if (!injected) {
-            for (int i = off; i < len + off; i++) {
-                byte b = bytes[i];
-                // b matches next position in buffer
-                if (b == delimiter[bufferOffset]) {
-                    bufferOffset++;
-                    // buffer became full
-                    if (bufferOffset == delimiter.length) {
-                        int length = i - off - delimiter.length + 1;
-                        if (length > 0) {
-                            out.write(bytes, off, length);
+    void process(byte[] bytes, int off, int len) throws IOException {
+        if (!passthrough) {
+            int end = off + len;
+            int stop = scanEnd(off, len);
+            int counted = off;
+            int held = this.held;
+            int state = this.state;
+            // positions count the held bytes followed by the bytes of this write, everything
+            // before written is already out and no partial match begins before mark
+            int written = 0;
+            int mark = 0;
+            // the end of the last occurrence, injected or not, which no later match reaches past
+            int bound = 0;
+            boolean tracking = !matcher.isBounded();
+            int i = off;
+            while (i < stop) {
+                if (state == 0) {
+                    // nothing is held while in the initial state, so jump ahead to the next candidate
+                    if ((i = matcher.skip(bytes, i, stop)) == stop) {
+                        break;
+                    }
+                    mark = held + i - off;
+                }
+                state = matcher.next(state, bytes[i++]);
+                if (state < 0) {
+                    int accepting = ~state;
+                    state = 0;
+                    int position = held + i - off;
+                    int from = bound;
+                    bound = position;
+                    if (occurred()) {
+                        scanned(i - counted);
+                        counted = i;
+                        int length = from < held
+                                ? matcher.matchLength(accepting, hold, from, held, bytes, off, i)
+                                : matcher.matchLength(accepting, bytes, off + from - held, i);
+                        // everything preceding the delimiter, whether held or part of this write
+                        release(written, position - length, held, bytes, off);
+                        inject(length);
+                        if (retainDelimiter) {
+                            release(position - length, position, held, bytes, off);
                         }
-                        inject();
-                        out.write(delimiter);
-                        int nextIndex = i + 1;
-                        if (nextIndex < len) {
-                            int remaining = len - nextIndex - off;
-                            out.write(bytes, nextIndex, remaining);
+                        written = position;
+                        if (passthrough) {
+                            break;
                         }
-                        return;
-                    }
-                } else {
-                    // we read a byte that negates the current match, go ahead and flush
-                    // the imaginary buffer if it might contain bytes from the prior write
-                    if (i - bufferOffset < off) {
-                        this.drainBuffer();
                     }
-                    bufferOffset = 0;
-                    // check if this byte is the beginning of the next sequence too
-                    if (b == delimiter[bufferOffset]) {
-                        bufferOffset++;
+                    stop = scanEnd(i, end - i);
+                } else if (tracking) {
+                    int depth = matcher.depth(state);
+                    if (depth >= 0) {
+                        mark = held + i - off - depth;
                     }
                 }
             }
-
-            // still not injected, need to take care of earlier bytes up to buffer
-            if (!injected) {
-                int length = (len - bufferOffset);
-                if (length > 0) {
-                    out.write(bytes, off, length);
-                }
+            if (passthrough) {
+                this.held = 0;
+                this.state = 0;
+                release(written, held + len, held, bytes, off);
+                return;
+            }
+            if (scanned(stop - counted)) {
+                // out of budget, so nothing is held back anymore
+                release(written, held + len, held, bytes, off);
+                this.held = 0;
+                this.state = 0;
+                skip();
+                return;
+            }
+            // hold back only the trailing bytes that could still begin the delimiter, which never
+            // include any of the last occurrence since the search started over after it
+            int keep = 0;
+            if (state != 0) {
+                int depth = matcher.depth(state);
+                keep = Math.min(depth >= 0 ? depth : held + len - mark, held + len - bound);
             }
+            release(written, held + len - keep, held, bytes, off);
+            retain(held + len - keep, held, bytes, off, len);
+            this.state = state;
         } else {
             out.write(bytes, off, len);
         }
     }
 
+    @Override
+    void clear() {
+        held = 0;
+        state = 0;
+    }
+
     @Override
     public void close() throws IOException {
-        this.drainBuffer();
         try {
-            injection.close();
+            this.drainBuffer();
         } finally {
             super.close();
         }
@@ -0,0 +1,92 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+
+
+/**
+ * A writer that injects a series of chars immediately preceding the first occurrence of the
+ * delimiter.
+ * <p>
+ * Assumes a single writer (no synchronization)
+ */
+public class PreDelimiterInjectingWriter extends InjectingWriter {
+
+    // the length of the delimiter prefix held back, which is all the state there is
+    private int matched = 0;
+    private char[] single;
+
+    public PreDelimiterInjectingWriter(Writer out, String delimiter, String injection) {
+        super(out, delimiter, injection);
+    }
+
+    public PreDelimiterInjectingWriter(Writer out, String delimiter, Reader injection) {
+        super(out, delimiter, injection);
+    }
+
+    /**
+     * Writes the first {@code count} chars of the held delimiter prefix followed by the chars
+     * of the current write.
+     */
+    private void release(int count, int held, char[] chars, int off) throws IOException {
+        if (count > 0) {
+            out.write(matcher.delimiter(), 0, Math.min(count, held));
+            if (count > held) {
+                out.write(chars, off, count - held);
+            }
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        if (single == null) {
+            single = new char[1];
+        }
+        single[0] = (char) c;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public void write(char[] chars, int off, int len) throws IOException {
+        if (injected) {
+            out.write(chars, off, len);
+            return;
+        }
+        int end = off + len;
+        int held = matched;
+        int state = held;
+        int i = off;
+        while (i < end) {
+            // nothing is held while in the initial state, so jump ahead to the next candidate
+            if (state == 0 && (i = matcher.skip(chars, i, end)) == end) {
+                break;
+            }
+            state = matcher.next(state, chars[i++]);
+            if (state == matcher.length()) {
+                matched = 0;
+                // everything preceding the delimiter, whether held or part of this write
+                release(held + i - off - state, held, chars, off);
+                inject();
+                out.write(matcher.delimiter());
+                out.write(chars, i, end - i);
+                return;
+            }
+        }
+        // hold back only the trailing chars that could still begin the delimiter
+        release(held + len - state, held, chars, off);
+        matched = state;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (matched > 0) {
+                out.write(matcher.delimiter(), 0, matched);
+                matched = 0;
+            }
+        } finally {
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import static java.nio.charset.Charset.defaultCharset;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CompressedInjectingOutputStreamTest {
+
+    private static final InjectionSpec BEFORE = InjectionSpec.before("</body>", "<script/>");
+
+    @Test
+    public void injectsIntoGzip() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 100; i++) {
+            String body = page(random, random.nextInt(20000));
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(random, BEFORE.wrapGzip(rawOut), gzip(body));
+            assertEquals(body.replace("</body>", "<script/></body>"), gunzip(rawOut.toByteArray()));
+        }
+    }
+
+    @Test
+    public void injectsIntoDeflate() throws IOException {
+        Random random = new Random(System.nanoTime());
+        InjectionSpec after = InjectionSpec.after("<body>", "<script/>");
+        for (int i = 0; i < 100; i++) {
+            String body = page(random, random.nextInt(20000));
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(random, after.wrapDeflate(rawOut), deflate(body));
+            assertEquals(body.replace("<body>", "<body><script/>"), inflate(rawOut.toByteArray()));
+        }
+    }
+
+    @Test
+    public void acceptsHeaderFieldsAndConcatenatedMembers() throws IOException {
+        Random random = new Random(System.nanoTime());
+        ByteArrayOutputStream members = new ByteArrayOutputStream();
+        members.write(member("<html><head></head>"));
+        members.write(member("<body>hello</body></html>"));
+        for (int i = 0; i < 100; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(random, BEFORE.wrapGzip(rawOut), members.toByteArray());
+            assertEquals("<html><head></head><body>hello<script/></body></html>", gunzip(rawOut.toByteArray()));
+        }
+    }
+
+    @Test
+    public void storesTheRemainder() throws IOException {
+        StringBuilder remainder = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            remainder.append("abcdefgh");
+        }
+        String body = "<html><body></body>" + remainder + "</html>";
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = BEFORE.wrapGzip(compressed)) {
+            out.write(gzip(body));
+        }
+        ByteArrayOutputStream stored = new ByteArrayOutputStream();
+        try (OutputStream out = BEFORE.compressionLevels(Deflater.BEST_COMPRESSION, Deflater.NO_COMPRESSION).wrapGzip(stored)) {
+            out.write(gzip(body));
+        }
+        String expected = body.replace("</body>", "<script/></body>");
+        assertEquals(expected, gunzip(compressed.toByteArray()));
+        assertEquals(expected, gunzip(stored.toByteArray()));
+        assertTrue(compressed.size() < remainder.length() / 10);
+        // only the bytes decompressed along with the delimiter may still use the first level
+        assertTrue(stored.size() > remainder.length() - 2 * 8192);
+    }
+
+    @Test(expected = ZipException.class)
+    public void rejectsTruncatedStreams() throws IOException {
+        byte[] gzip = gzip("<html><body></body></html>");
+        try (OutputStream out = BEFORE.wrapGzip(new ByteArrayOutputStream())) {
+            out.write(gzip, 0, gzip.length - 4);
+        }
+    }
+
+    @Test(expected = ZipException.class)
+    public void rejectsCorruptTrailers() throws IOException {
+        byte[] gzip = gzip("<html><body></body></html>");
+        gzip[gzip.length - 1]++;
+        try (OutputStream out = BEFORE.wrapGzip(new ByteArrayOutputStream())) {
+            out.write(gzip);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsIllegalLevels() {
+        BEFORE.compressionLevels(Deflater.BEST_SPEED, 10);
+    }
+
+    private static String page(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            text.append("abc <p>\n".charAt(random.nextInt(8)));
+        }
+        int split = random.nextInt(length + 1);
+        return "<html><body>" + text.substring(0, split) + "</body>" + text.substring(split) + "</html>";
+    }
+
+    /**
+     * @return a gzip member whose header has every optional field.
+     */
+    private static byte[] member(String content) throws IOException {
+        byte[] bytes = content.getBytes();
+        ByteArrayOutputStream member = new ByteArrayOutputStream();
+        member.write(new byte[]{0x1F, (byte) 0x8B, 8, 2 | 4 | 8 | 16, 0, 0, 0, 0, 0, (byte) 255});
+        member.write(new byte[]{3, 0, 'a', 'b', 'c'});
+        member.write("name.html\0".getBytes());
+        member.write("comment\0".getBytes());
+        member.write(new byte[]{0, 0});
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(member, deflater)) {
+            out.write(bytes);
+            out.finish();
+            CRC32 crc = new CRC32();
+            crc.update(bytes);
+            writeInt(member, (int) crc.getValue());
+            writeInt(member, bytes.length);
+        } finally {
+            deflater.end();
+        }
+        return member.toByteArray();
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write(new byte[]{(byte) value, (byte) (value >> 8), (byte) (value >> 16), (byte) (value >> 24)});
+    }
+
+    private static byte[] gzip(String content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(content.getBytes());
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] deflate(String content) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(content.getBytes());
+        }
+        return compressed.toByteArray();
+    }
+
+    private static String gunzip(byte[] compressed) throws IOException {
+        return readAll(new GZIPInputStream(new ByteArrayInputStream(compressed)));
+    }
+
+    private static String inflate(byte[] compressed) throws IOException {
+        return readAll(new InflaterInputStream(new ByteArrayInputStream(compressed)));
+    }
+
+    private static String readAll(InputStream stream) throws IOException {
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = stream) {
+            byte[] buffer = new byte[4096];
+            int n;
+            while (-1 != (n = in.read(buffer))) {
+                result.write(buffer, 0, n);
+            }
+        }
+        return new String(result.toByteArray(), defaultCharset());
+    }
+
+    private static void fuzzyWrite(Random random, OutputStream stream, byte[] content) throws IOException {
+        try (OutputStream out = stream) {
+            int offset = 0;
+            while (offset < content.length) {
+                int length = Math.min(1 + random.nextInt(random.nextBoolean() ? 8 : 4096), content.length - offset);
+                if (length == 1) {
+                    out.write(content[offset]);
+                } else {
+                    out.write(Arrays.copyOfRange(content, offset, offset + length));
+                }
+                offset += length;
+                if (random.nextInt(16) == 0) {
+                    out.flush();
+                }
+            }
+        }
+    }
+}
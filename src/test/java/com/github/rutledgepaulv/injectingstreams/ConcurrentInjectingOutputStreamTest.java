@@ -0,0 +1,195 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static java.nio.charset.Charset.defaultCharset;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ConcurrentInjectingOutputStreamTest {
+
+    private static final int THREADS = 8;
+    private static final int LINES = 500;
+
+    @Test
+    public void keepsWritesWholeBeforeAndAfterInjecting() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            ConcurrentInjectingOutputStream out = InjectionSpec.before("<event>", "<injected/>\n").wrapConcurrent(rawOut);
+            assertFalse(out.isInjected());
+            writeConcurrently(out, null);
+            assertTrue(out.isInjected());
+            assertLines(rawOut.toString(defaultCharset().name()));
+        }
+    }
+
+    @Test
+    public void waitsForAPendingInjectionBeforeTakingTheFastPath() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            CompletableFuture<byte[]> injection = new CompletableFuture<>();
+            ConcurrentInjectingOutputStream out = InjectionSpec.before("<event>", injection)
+                    .awaitInjection(1 << 20, Duration.ofSeconds(10))
+                    .wrapConcurrent(rawOut);
+            writeConcurrently(out, () -> injection.complete("<injected/>\n".getBytes()));
+            assertLines(rawOut.toString(defaultCharset().name()));
+        }
+    }
+
+    @Test
+    public void passesThroughOnceSkipped() throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        ConcurrentInjectingOutputStream out = InjectionSpec.before("<event>", "<injected/>").scanLimit(4).wrapConcurrent(rawOut);
+        out.write("line <event>".getBytes());
+        out.write('!');
+        out.close();
+        assertTrue(out.isSkipped());
+        assertEquals("line <event>!", rawOut.toString(defaultCharset().name()));
+    }
+
+    @Test
+    public void closeWaitsForWritesOnTheFastPath() throws Exception {
+        CountDownLatch writing = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<String> sunk = Collections.synchronizedList(new ArrayList<>());
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+                sunk.add(String.valueOf((char) b));
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                String bytes = new String(b, off, len, defaultCharset());
+                if (bytes.equals("slow")) {
+                    writing.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        throw new InterruptedIOException();
+                    }
+                }
+                sunk.add(bytes);
+            }
+
+            @Override
+            public void close() {
+                sunk.add("closed");
+            }
+        };
+        ConcurrentInjectingOutputStream out = InjectionSpec.before("<event>", "<injected/>").wrapConcurrent(sink);
+        out.write("<event>".getBytes());
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<?> write = executor.submit(() -> {
+                out.write("slow".getBytes());
+                return null;
+            });
+            writing.await();
+            CompletableFuture<Thread> closing = new CompletableFuture<>();
+            Future<?> close = executor.submit(() -> {
+                closing.complete(Thread.currentThread());
+                out.close();
+                return null;
+            });
+            try {
+                close.get(100, TimeUnit.MILLISECONDS);
+                fail("Closed while a write was still on its way to the sink.");
+            } catch (TimeoutException expected) {
+                // still waiting for the write
+            }
+            // parked rather than spinning
+            Thread closer = closing.get(10, TimeUnit.SECONDS);
+            for (int i = 0; i < 1000 && closer.getState() != Thread.State.WAITING; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(Thread.State.WAITING, closer.getState());
+            release.countDown();
+            write.get(10, TimeUnit.SECONDS);
+            close.get(10, TimeUnit.SECONDS);
+            try {
+                out.write('!');
+                fail("Wrote to a closed stream.");
+            } catch (IOException expected) {
+                // rejected
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(Arrays.asList("<injected/>", "<event>", "slow", "closed"), sunk);
+    }
+
+    /**
+     * Every thread writes whole lines, one of which carries the delimiter, halfway through.
+     */
+    private static void writeConcurrently(OutputStream out, Runnable halfway) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int line = 0; line < LINES; line++) {
+                        if (thread == 0 && line == LINES / 2) {
+                            out.write("<event>\n".getBytes());
+                            if (halfway != null) {
+                                halfway.run();
+                            }
+                        }
+                        byte[] bytes = ("(thread " + thread + " line " + line + "\n)").getBytes();
+                        out.write(bytes, 1, bytes.length - 2);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            out.close();
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void assertLines(String written) {
+        List<String> lines = Arrays.asList(written.split("\n"));
+        assertEquals(THREADS * LINES + 2, lines.size());
+        int event = lines.indexOf("<event>");
+        assertEquals("<injected/>", lines.get(event - 1));
+        assertEquals(1, lines.stream().filter("<injected/>"::equals).count());
+        int[] next = new int[THREADS];
+        for (String line : lines) {
+            if (line.startsWith("thread ")) {
+                String[] parts = line.split(" ");
+                int thread = Integer.parseInt(parts[1]);
+                // lines that were torn apart would not parse, and every thread keeps its order
+                assertEquals(line, next[thread]++, Integer.parseInt(parts[3]));
+            }
+        }
+        for (int count : next) {
+            assertEquals(LINES, count);
+        }
+    }
+}
@@ -0,0 +1,246 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyRead;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyWrite;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.randomString;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.trickle;
+import static java.nio.charset.Charset.defaultCharset;
+import static org.junit.Assert.assertEquals;
+
+public class DelimiterTest {
+
+    private static final String ALPHABET = "aAbB <>\t";
+
+    @Test
+    public void ignoresAsciiCase() throws IOException {
+        InjectionSpec spec = InjectionSpec.before(Delimiter.ignoreCase("</body>"), "<script/>");
+        for (int i = 0; i < 1000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(spec.wrap(rawOut), "<html></BoDy></html>");
+            assertEquals("<html><script/></BoDy></html>", new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void matchesOptionalWhitespace() throws IOException {
+        Delimiter head = Delimiter.builder().ignoreCase("<head").whitespace().literal(">").build();
+        for (int i = 0; i < 1000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.before(head, "|").wrap(rawOut), "<html><HEAD  \n></head>");
+            assertEquals("<html>|<HEAD  \n></head>", new String(rawOut.toByteArray(), defaultCharset()));
+
+            rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.after(head, "|").wrap(rawOut), "<html><head><head >");
+            assertEquals("<html><head>|<head >", new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void holdsBackUnboundedPartialMatches() throws IOException {
+        Delimiter tag = Delimiter.builder().literal("<a").whitespace().literal(">").build();
+        StringBuilder spaces = new StringBuilder();
+        for (int i = 0; i < 10000; i++) {
+            spaces.append(' ');
+        }
+        String content = "x<a" + spaces + "y<a" + spaces + ">z";
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        fuzzyWrite(InjectionSpec.before(tag, "|").wrap(rawOut), content);
+        assertEquals("x<a" + spaces + "y|<a" + spaces + ">z", new String(rawOut.toByteArray(), defaultCharset()));
+        assertEquals("x<a" + spaces + "y|<a" + spaces + ">z", fuzzyRead(InjectionSpec.before(tag, "|").wrap(trickle(content))));
+    }
+
+    @Test
+    public void differentialAgainstRegex() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 10000; i++) {
+            StringBuilder regex = new StringBuilder();
+            Delimiter delimiter = randomDelimiter(random, regex);
+            Pattern pattern = Pattern.compile(regex.toString());
+            String content = randomString(random, random.nextInt(30), ALPHABET);
+
+            int[] match = firstMatch(pattern, content);
+            String before = match == null ? content : content.substring(0, match[0]) + "|" + content.substring(match[0]);
+            String after = match == null ? content : content.substring(0, match[1]) + "|" + content.substring(match[1]);
+            String message = regex + " in " + content;
+
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.before(delimiter, "|").wrap(rawOut), content);
+            assertEquals(message, before, new String(rawOut.toByteArray(), defaultCharset()));
+
+            rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.after(delimiter, "|").wrap(rawOut), content);
+            assertEquals(message, after, new String(rawOut.toByteArray(), defaultCharset()));
+
+            assertEquals(message, before, fuzzyRead(InjectionSpec.before(delimiter, "|").wrap(trickle(content))));
+            assertEquals(message, after, fuzzyRead(InjectionSpec.after(delimiter, "|").wrap(trickle(content))));
+
+            StringBuilder replaced = new StringBuilder();
+            String rest = content;
+            for (int[] next = match; next != null; next = firstMatch(pattern, rest)) {
+                replaced.append(rest, 0, next[0]).append('|');
+                rest = rest.substring(next[1]);
+            }
+            replaced.append(rest);
+            rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.replace(delimiter, "|").occurrences(Occurrences.all()).wrap(rawOut), content);
+            assertEquals(message, replaced.toString(), new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void patternsNeverReachBackIntoSkippedOccurrences() throws IOException {
+        Delimiter delimiter = Delimiter.pattern("c.?c");
+        for (int i = 0; i < 1000; i++) {
+            assertEquals("cc[X]", write(InjectionSpec.replace(delimiter, "[X]").occurrences(Occurrences.nth(2)), "cccc"));
+            assertEquals("cc[X]cc", write(InjectionSpec.before(delimiter, "[X]").occurrences(Occurrences.nth(2)), "cccc"));
+            assertEquals("cc[X]cc[X]c", write(InjectionSpec.replace(delimiter, "[X]").occurrences(Occurrences.every(2)), "ccccccccc"));
+            assertEquals("cc[X]cccc[X]ccc", write(InjectionSpec.before(delimiter, "[X]").occurrences(Occurrences.every(2)), "ccccccccc"));
+            assertEquals("cxc[X]", write(InjectionSpec.replace(delimiter, "[X]").occurrences(Occurrences.nth(2)), "cxccxc"));
+            assertEquals("cxc[X]cxc", write(InjectionSpec.before(delimiter, "[X]").occurrences(Occurrences.nth(2)), "cxccxc"));
+        }
+    }
+
+    @Test
+    public void matchesTagPatterns() throws IOException {
+        InjectionSpec spec = InjectionSpec.after(Delimiter.pattern("(?i)<head[^>]*>"), "|");
+        for (int i = 0; i < 1000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(spec.wrap(rawOut), "<html><HEAD lang=\"en\"><title>");
+            assertEquals("<html><HEAD lang=\"en\">|<title>", new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void patternDifferentialAgainstRegex() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 10000; i++) {
+            String regex = randomPattern(random);
+            Delimiter delimiter = Delimiter.pattern(regex);
+            Pattern pattern = Pattern.compile(regex);
+            String content = randomString(random, random.nextInt(30), ALPHABET);
+
+            int[] match = firstMatch(pattern, content);
+            String before = match == null ? content : content.substring(0, match[0]) + "|" + content.substring(match[0]);
+            String after = match == null ? content : content.substring(0, match[1]) + "|" + content.substring(match[1]);
+            String message = regex + " in " + content;
+
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.before(delimiter, "|").wrap(rawOut), content);
+            assertEquals(message, before, new String(rawOut.toByteArray(), defaultCharset()));
+
+            rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.after(delimiter, "|").wrap(rawOut), content);
+            assertEquals(message, after, new String(rawOut.toByteArray(), defaultCharset()));
+
+            assertEquals(message, before, fuzzyRead(InjectionSpec.before(delimiter, "|").wrap(trickle(content))));
+        }
+    }
+
+    @Test
+    public void rejectsUnsupportedPatterns() {
+        for (String pattern : new String[]{"", "(a)", "a|b", "^a", "a\\1", "[ab", "a{3,1}", "a{2", "*a", "a?b", "\\q", "a{2000}"}) {
+            try {
+                Delimiter.pattern(pattern);
+                throw new AssertionError(pattern + " should have been rejected");
+            } catch (IllegalArgumentException expected) {
+                // rejected as it should be
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustBeginWithARequiredByte() {
+        Delimiter.builder().whitespace().literal(">").build();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void mustNotBeEmpty() {
+        Delimiter.builder().build();
+    }
+
+    /**
+     * @return the start and end of the occurrence that ends first, preferring the longest.
+     */
+    private static String write(InjectionSpec spec, String content) throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        fuzzyWrite(spec.wrap(rawOut), content);
+        return new String(rawOut.toByteArray(), defaultCharset());
+    }
+
+    private static int[] firstMatch(Pattern pattern, String content) {
+        for (int end = 1; end <= content.length(); end++) {
+            for (int start = 0; start < end; start++) {
+                if (pattern.matcher(content.substring(start, end)).matches()) {
+                    return new int[]{start, end};
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String randomPattern(Random random) {
+        StringBuilder pattern = new StringBuilder();
+        if (random.nextInt(4) == 0) {
+            pattern.append("(?i)");
+        }
+        int atoms = 1 + random.nextInt(4);
+        for (int i = 0; i < atoms; i++) {
+            switch (random.nextInt(5)) {
+                case 0:
+                    pattern.append('.');
+                    break;
+                case 1:
+                    pattern.append("[ab]");
+                    break;
+                case 2:
+                    pattern.append("[^<>]");
+                    break;
+                case 3:
+                    pattern.append("\\s");
+                    break;
+                default:
+                    pattern.append("aAbB<>".charAt(random.nextInt(6)));
+            }
+            String[] quantifiers = i == 0 ? new String[]{"", "", "+", "{1,2}"} : new String[]{"", "", "?", "*", "+", "{2}", "{0,2}", "{1,}"};
+            pattern.append(quantifiers[random.nextInt(quantifiers.length)]);
+        }
+        return pattern.toString();
+    }
+
+    private static Delimiter randomDelimiter(Random random, StringBuilder regex) {
+        Delimiter.Builder builder = Delimiter.builder();
+        int elements = 1 + random.nextInt(4);
+        for (int i = 0; i < elements; i++) {
+            String bytes = randomString(random, 1 + random.nextInt(2), ALPHABET);
+            switch (i == 0 ? random.nextInt(4) : random.nextInt(5)) {
+                case 0:
+                    builder.literal(bytes);
+                    regex.append(Pattern.quote(bytes));
+                    break;
+                case 1:
+                    builder.ignoreCase(bytes);
+                    regex.append("(?i:").append(Pattern.quote(bytes)).append(')');
+                    break;
+                case 2:
+                    builder.anyOf(bytes);
+                    regex.append('[').append(Pattern.quote(bytes)).append(']');
+                    break;
+                case 3:
+                    builder.noneOf(bytes);
+                    regex.append("[^").append(Pattern.quote(bytes)).append(']');
+                    break;
+                default:
+                    builder.whitespace();
+                    regex.append("[ \\t\\r\\n\\f]*");
+            }
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.plant;
+import static java.nio.charset.Charset.defaultCharset;
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class InjectingFilesTest {
+
+    @Test
+    public void injectsIntoFiles() throws IOException {
+        Path src = Files.createTempFile("injecting", ".html");
+        Path dst = Files.createTempFile("injected", ".html");
+        try {
+            Files.write(src, "<html><body></body></html>".getBytes());
+            assertEquals(12, InjectingFiles.injectBefore(src, dst, "</body>", "<script/>"));
+            assertEquals("<html><body><script/></body></html>", read(dst));
+
+            assertEquals(19, InjectingFiles.injectAfter(src, dst, "</body>", "<script/>"));
+            assertEquals("<html><body></body><script/></html>", read(dst));
+
+            assertEquals(-1, InjectingFiles.injectAfter(src, dst, "</head>", "<script/>"));
+            assertEquals("<html><body></body></html>", read(dst));
+
+            Files.write(src, "<body></body>".getBytes(UTF_16BE));
+            assertEquals(12, InjectingFiles.injectBefore(src, dst, "</body>", "<br/>", UTF_16BE));
+            assertEquals("<body><br/></body>", new String(Files.readAllBytes(dst), UTF_16BE));
+            assertEquals(26, InjectingFiles.injectAfter(src, dst, "</body>", "<br/>", UTF_16BE));
+            assertEquals("<body></body><br/>", new String(Files.readAllBytes(dst), UTF_16BE));
+        } finally {
+            Files.delete(src);
+            Files.delete(dst);
+        }
+    }
+
+    @Test
+    public void refusesToInjectIntoTheSourceItself() throws IOException {
+        Path src = Files.createTempFile("injecting", ".html");
+        Path link = src.resolveSibling(src.getFileName() + ".link");
+        try {
+            Files.write(src, "<html><body></body></html>".getBytes());
+            Files.createSymbolicLink(link, src);
+            for (Path dst : new Path[]{src, link}) {
+                try {
+                    InjectingFiles.injectBefore(src, dst, "</body>", "<script/>");
+                    fail("Injected into " + dst);
+                } catch (IllegalArgumentException expected) {
+                    assertEquals("<html><body></body></html>", read(src));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(link);
+            Files.delete(src);
+        }
+    }
+
+    @Test
+    public void findsTheFirstOccurrenceAcrossSegments() throws IOException {
+        Random random = new Random(System.nanoTime());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        Path src = Files.createTempFile("injecting", ".txt");
+        Path dst = Files.createTempFile("injected", ".txt");
+        try {
+            for (int i = 0; i < 1000; i++) {
+                StringBuilder content = new StringBuilder();
+                int length = random.nextInt(200);
+                for (int j = 0; j < length; j++) {
+                    content.append("ab".charAt(random.nextInt(2)));
+                }
+                String delimiter = random.nextBoolean() ? "aab" : "abab";
+                if (random.nextInt(4) == 0) {
+                    // searched with Boyer-Moore-Horspool
+                    delimiter = "abbabaabbaababba";
+                    content.replace(0, content.length(), plant(random, delimiter, content.toString()));
+                }
+                Files.write(src, content.toString().getBytes());
+                long segmentSize = 1 + random.nextInt(16);
+                int expected = indexOfFirstEnd(content.toString(), delimiter);
+                String message = delimiter + " in " + content + " by " + segmentSize;
+
+                long before = InjectingFiles.inject(src, dst, delimiter.getBytes(), "|".getBytes(), true, pool, segmentSize);
+                assertEquals(message, expected < 0 ? -1 : expected - delimiter.length(), before);
+                assertEquals(message, expected < 0 ? content.toString() : content.toString().replaceFirst(delimiter, "|" + delimiter), read(dst));
+
+                long after = InjectingFiles.inject(src, dst, delimiter.getBytes(), "|".getBytes(), false, pool, segmentSize);
+                assertEquals(message, expected, after);
+                assertEquals(message, expected < 0 ? content.toString() : content.toString().replaceFirst(delimiter, delimiter + "|"), read(dst));
+            }
+        } finally {
+            pool.shutdown();
+            Files.delete(src);
+            Files.delete(dst);
+        }
+    }
+
+    private static int indexOfFirstEnd(String content, String delimiter) {
+        int index = content.indexOf(delimiter);
+        return index < 0 ? -1 : index + delimiter.length();
+    }
+
+    private static String read(Path path) throws IOException {
+        return new String(Files.readAllBytes(path), defaultCharset());
+    }
+}
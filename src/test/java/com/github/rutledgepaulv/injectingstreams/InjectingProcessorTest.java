@@ -0,0 +1,296 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.Charset.defaultCharset;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class InjectingProcessorTest {
+
+    private static final InjectionSpec BEFORE = InjectionSpec.before("hello ", "world ");
+    private static final InjectionSpec AFTER = InjectionSpec.after("hello ", "world ");
+
+    @Test
+    public void fuzzingBeforeAndAfter() {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 1000; i++) {
+            String content = randomString(random, random.nextInt(40));
+            String before = content.replaceFirst("hello ", "world hello ");
+            String after = content.replaceFirst("hello ", "hello world ");
+
+            Source source = new Source(chunks(random, content));
+            Sink sink = new Sink(random);
+            Flow.Processor<ByteBuffer, ByteBuffer> processor = BEFORE.processor();
+            source.subscribe(processor);
+            processor.subscribe(sink);
+            sink.requestUntilComplete();
+            assertEquals(content, before, sink.result());
+
+            source = new Source(chunks(random, content));
+            sink = new Sink(random);
+            processor = AFTER.processor();
+            processor.subscribe(sink);
+            source.subscribe(processor);
+            sink.requestUntilComplete();
+            assertEquals(content, after, sink.result());
+        }
+    }
+
+    @Test
+    public void honorsBackpressure() {
+        Source source = new Source(chunks(new Random(), "hello hello hello"));
+        Sink sink = new Sink(new Random());
+        Flow.Processor<ByteBuffer, ByteBuffer> processor = BEFORE.processor();
+        source.subscribe(processor);
+        processor.subscribe(sink);
+        assertEquals(0, source.requested);
+
+        sink.subscription.request(1);
+        assertEquals(1, sink.received.size());
+        assertTrue(source.requested <= source.delivered + 1);
+        sink.requestUntilComplete();
+        assertEquals("world hello hello hello", sink.result());
+    }
+
+    @Test
+    public void emitsSlicesOfIncomingBuffers() {
+        byte[] array = "<html><body></body></html>".getBytes();
+        List<ByteBuffer> chunks = new ArrayList<>();
+        chunks.add(ByteBuffer.wrap(array));
+        Source source = new Source(chunks);
+        Sink sink = new Sink(new Random());
+        Flow.Processor<ByteBuffer, ByteBuffer> processor = InjectionSpec.before("</body>", "<script/>").processor();
+        source.subscribe(processor);
+        processor.subscribe(sink);
+        sink.requestUntilComplete();
+        assertEquals("<html><body><script/></body></html>", sink.result());
+        assertSame(array, sink.received.get(0).array());
+        assertSame(array, sink.received.get(sink.received.size() - 1).array());
+    }
+
+    @Test
+    public void worksAcrossThreads() throws Exception {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 100; i++) {
+            String content = randomString(random, random.nextInt(200));
+            Collector collector = new Collector();
+            Flow.Processor<ByteBuffer, ByteBuffer> processor = BEFORE.processor();
+            processor.subscribe(collector);
+            try (SubmissionPublisher<ByteBuffer> publisher = new SubmissionPublisher<>()) {
+                publisher.subscribe(processor);
+                for (ByteBuffer chunk : chunks(random, content)) {
+                    publisher.submit(chunk);
+                }
+            }
+            assertEquals(content.replaceFirst("hello ", "world hello "), collector.result.get(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void doesNotBlockOnAPendingInjection() {
+        CompletableFuture<byte[]> script = new CompletableFuture<>();
+        Source source = new Source(List.of(ByteBuffer.wrap("<html><body>".getBytes()),
+                ByteBuffer.wrap("</body>".getBytes()), ByteBuffer.wrap("</html>".getBytes())));
+        Sink sink = new Sink(new Random());
+        Flow.Processor<ByteBuffer, ByteBuffer> processor = InjectionSpec.before("</body>", script).processor();
+        source.subscribe(processor);
+        processor.subscribe(sink);
+
+        // every signal returns at once, and upstream is paused after the delimiter
+        sink.subscription.request(100);
+        assertEquals("<html><body>", sink.result());
+        assertEquals(2, source.delivered);
+        assertFalse(sink.complete);
+
+        script.complete("<script/>".getBytes());
+        sink.requestUntilComplete();
+        assertEquals("<html><body><script/></body></html>", sink.result());
+    }
+
+    @Test
+    public void fallsBackWithoutBlockingOnceThePendingInjectionTimesOut() throws Exception {
+        Source source = new Source(List.of(ByteBuffer.wrap("<html><body></body>".getBytes()), ByteBuffer.wrap("</html>".getBytes())));
+        Collector collector = new Collector();
+        Flow.Processor<ByteBuffer, ByteBuffer> processor = InjectionSpec.before("</body>", new CompletableFuture<>())
+                .awaitInjection(0, Duration.ofMillis(50), "<!-- timed out -->".getBytes())
+                .processor();
+        source.subscribe(processor);
+        processor.subscribe(collector);
+        assertFalse(collector.result.isDone());
+        assertEquals("<html><body><!-- timed out --></body></html>", collector.result.get(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void rejectsASecondSubscriber() {
+        Flow.Processor<ByteBuffer, ByteBuffer> processor = BEFORE.processor();
+        processor.subscribe(new Sink(new Random()));
+        Sink second = new Sink(new Random());
+        processor.subscribe(second);
+        assertTrue(second.error instanceof IllegalStateException);
+    }
+
+    private static List<ByteBuffer> chunks(Random random, String content) {
+        byte[] bytes = content.getBytes();
+        List<ByteBuffer> chunks = new ArrayList<>();
+        int offset = 0;
+        while (offset < bytes.length) {
+            int length = Math.min(1 + random.nextInt(8), bytes.length - offset);
+            ByteBuffer chunk = random.nextBoolean() ? ByteBuffer.allocate(length + 2) : ByteBuffer.allocateDirect(length + 2);
+            chunk.position(1);
+            chunk.put(bytes, offset, length);
+            chunk.flip();
+            chunk.position(1);
+            chunks.add(chunk);
+            offset += length;
+        }
+        return chunks;
+    }
+
+    private static String randomString(Random random, int length) {
+        String[] words = {"hello ", "hel", "lo ", "h", "world "};
+        StringBuilder builder = new StringBuilder();
+        while (builder.length() < length) {
+            builder.append(words[random.nextInt(words.length)]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Publishes a list of buffers synchronously, exactly as far as it is asked to.
+     */
+    private static final class Source implements Flow.Publisher<ByteBuffer> {
+
+        private final List<ByteBuffer> chunks;
+        private long requested;
+        private int delivered;
+        private boolean emitting;
+
+        private Source(List<ByteBuffer> chunks) {
+            this.chunks = chunks;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    requested += n;
+                    if (emitting) {
+                        return;
+                    }
+                    emitting = true;
+                    while (delivered < requested && delivered < chunks.size()) {
+                        subscriber.onNext(chunks.get(delivered++));
+                    }
+                    emitting = false;
+                    if (delivered == chunks.size()) {
+                        delivered++;
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+        }
+    }
+
+    /**
+     * Requests everything and collects it, safe to be signalled from any thread.
+     */
+    private static final class Collector implements Flow.Subscriber<ByteBuffer> {
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final CompletableFuture<String> result = new CompletableFuture<>();
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public synchronized void onNext(ByteBuffer item) {
+            byte[] copy = new byte[item.remaining()];
+            item.get(copy);
+            bytes.write(copy, 0, copy.length);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            result.completeExceptionally(throwable);
+        }
+
+        @Override
+        public synchronized void onComplete() {
+            result.complete(new String(bytes.toByteArray(), defaultCharset()));
+        }
+    }
+
+    /**
+     * Requests a random number of buffers at a time.
+     */
+    private static final class Sink implements Flow.Subscriber<ByteBuffer> {
+
+        private final Random random;
+        private final List<ByteBuffer> received = new ArrayList<>();
+        private Flow.Subscription subscription;
+        private boolean complete;
+        private Throwable error;
+
+        private Sink(Random random) {
+            this.random = random;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(ByteBuffer item) {
+            received.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            complete = true;
+        }
+
+        private void requestUntilComplete() {
+            for (int i = 0; i < 10000 && !complete; i++) {
+                subscription.request(1 + random.nextInt(3));
+            }
+            assertTrue(complete);
+        }
+
+        private String result() {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            for (ByteBuffer buffer : received) {
+                byte[] copy = new byte[buffer.remaining()];
+                buffer.duplicate().get(copy);
+                bytes.write(copy, 0, copy.length);
+            }
+            return new String(bytes.toByteArray(), defaultCharset());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
+
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyWrite;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class InjectionMetricsTest {
+
+    private static final String BODY = "<html><body></body></html>";
+
+    @Test
+    public void reportsWhereTheInjectionWasPlaced() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            Recorder before = new Recorder();
+            fuzzyWrite(InjectionSpec.before("</body>", "<script/>").listener(before).wrap(new ByteArrayOutputStream()), BODY);
+            assertEquals(List.of("injected 12 19 9", "passthrough 19", "closed 19 true"), before.events);
+
+            Recorder after = new Recorder();
+            fuzzyWrite(InjectionSpec.after("</body>", "<script/>").listener(after).wrap(new ByteArrayOutputStream()), BODY);
+            assertEquals(List.of("injected 19 19 9", "passthrough 19", "closed 19 true"), after.events);
+
+            Recorder replaced = new Recorder();
+            fuzzyWrite(InjectionSpec.replace(";", "--").occurrences(Occurrences.all()).listener(replaced)
+                    .wrap(new ByteArrayOutputStream()), "a;bb;c");
+            assertEquals(List.of("injected 1 2 2", "injected 4 5 2", "closed 6 true"), replaced.events);
+        }
+    }
+
+    @Test
+    public void reportsGivingUp() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            Recorder pre = new Recorder();
+            fuzzyWrite(InjectionSpec.before("</body>", "<script/>").scanLimit(10).listener(pre).wrap(new ByteArrayOutputStream()), BODY);
+            assertEquals(List.of("skipped 10", "passthrough 10", "closed 10 false"), pre.events);
+
+            Recorder post = new Recorder();
+            fuzzyWrite(InjectionSpec.after("</body>", "<script/>").scanLimit(10).listener(post).wrap(new ByteArrayOutputStream()), BODY);
+            assertEquals(List.of("skipped 10", "passthrough 10", "closed 10 false"), post.events);
+        }
+    }
+
+    @Test
+    public void reportsPendingInjectionsOnceWritten() throws IOException {
+        CompletableFuture<byte[]> script = new CompletableFuture<>();
+        Recorder recorder = new Recorder();
+        OutputStream out = InjectionSpec.before("</body>", script).awaitInjection(1024, Duration.ofSeconds(10))
+                .listener(recorder).wrap(new ByteArrayOutputStream());
+        out.write(BODY.getBytes());
+        assertEquals(List.of("passthrough 19"), recorder.events);
+        script.complete("<script/>".getBytes());
+        out.close();
+        assertEquals(List.of("passthrough 19", "injected 12 19 9", "closed 19 true"), recorder.events);
+    }
+
+    @Test
+    public void reportsBodiesWithoutTheDelimiter() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            Recorder pre = new Recorder();
+            OutputStream out = InjectionSpec.before("</body>", "<script/>").listener(pre).wrap(new ByteArrayOutputStream());
+            fuzzyWrite(out, "<html></html>");
+            // closing again reports nothing
+            out.close();
+            assertEquals(List.of("closed 13 false"), pre.events);
+
+            Recorder post = new Recorder();
+            fuzzyWrite(InjectionSpec.after("</body>", "<script/>").listener(post).wrap(new ByteArrayOutputStream()), "<html></html>");
+            assertEquals(List.of("closed 13 false"), post.events);
+        }
+
+        InjectionMetrics metrics = new InjectionMetrics();
+        fuzzyWrite(InjectionSpec.before("</body>", "<script/>").listener(metrics).wrap(new ByteArrayOutputStream()), "<html></html>");
+        fuzzyWrite(InjectionSpec.before(";", "|").occurrences(Occurrences.all()).listener(metrics).wrap(new ByteArrayOutputStream()), "a;b;c");
+        assertEquals(0, metrics.passthroughs());
+        assertEquals(2, metrics.streams());
+        assertEquals(1, metrics.misses());
+        assertEquals(13 + 5, metrics.scannedBytes());
+    }
+
+    @Test
+    public void aggregatesAcrossStreams() {
+        InjectionMetrics metrics = new InjectionMetrics();
+        InjectionSpec found = InjectionSpec.before("</body>", "<script/>").listener(metrics);
+        InjectionSpec skipped = found.scanLimit(10);
+        IntStream.range(0, 1000).parallel().forEach(i -> {
+            try {
+                fuzzyWrite((i % 4 == 0 ? skipped : found).wrap(new ByteArrayOutputStream()), i % 5 == 1 ? "<html></html>" : BODY);
+            } catch (IOException e) {
+                throw new AssertionError(e);
+            }
+        });
+        // a quarter give up at the scan limit, and of the rest a fifth never see the delimiter
+        assertEquals(600, metrics.injections());
+        assertEquals(600 * 9, metrics.injectedBytes());
+        assertEquals(600 * 12, metrics.injectionOffsets());
+        assertEquals(250, metrics.skips());
+        assertEquals(850, metrics.passthroughs());
+        assertEquals(600 * 19 + 250 * 10 + 150 * 13, metrics.scannedBytes());
+        assertEquals(1000, metrics.streams());
+        assertEquals(400, metrics.misses());
+        assertTrue(metrics.injectionNanos() >= 0);
+    }
+
+    private static final class Recorder implements InjectionListener {
+
+        private final List<String> events = new ArrayList<>();
+
+        @Override
+        public void injected(long offset, long scanned, long bytes, long nanos) {
+            assertTrue(nanos >= 0);
+            events.add("injected " + offset + " " + scanned + " " + bytes);
+        }
+
+        @Override
+        public void skipped(long scanned) {
+            events.add("skipped " + scanned);
+        }
+
+        @Override
+        public void passthrough(long offset) {
+            events.add("passthrough " + offset);
+        }
+
+        @Override
+        public void closed(long scanned, boolean injected) {
+            events.add("closed " + scanned + " " + injected);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.injectAfterOutput;
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.injectBeforeOutput;
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.rules;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyWrite;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.randomString;
+import static java.nio.charset.Charset.defaultCharset;
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+import static org.junit.Assert.assertEquals;
+
+public class InjectionRulesTest {
+
+    private static final String PAGE = "<html><head><title>t</title></head><body><p>hi</p></body></html>";
+
+    @Test
+    public void encodesWithTheGivenCharset() throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        try (OutputStream out = rules().after("<head>", "<meta/>", UTF_16BE).before("</body>", "<script/>", UTF_16BE).wrap(rawOut)) {
+            out.write(PAGE.getBytes(UTF_16BE));
+        }
+        assertEquals(PAGE.replace("<head>", "<head><meta/>").replace("</body>", "<script/></body>"),
+                new String(rawOut.toByteArray(), UTF_16BE));
+    }
+
+    @Test
+    public void constructors() {
+        rules().before("Test", "Test")
+                .before("Test", "Test".getBytes())
+                .before("Test".getBytes(), "Test")
+                .before("Test".getBytes(), "Test".getBytes())
+                .before("Test", new ByteArrayInputStream("Test".getBytes()))
+                .before("Test".getBytes(), new ByteArrayInputStream("Test".getBytes()))
+                .after("Test", "Test")
+                .after("Test", "Test".getBytes())
+                .after("Test".getBytes(), "Test")
+                .after("Test".getBytes(), "Test".getBytes())
+                .after("Test", new ByteArrayInputStream("Test".getBytes()))
+                .after("Test".getBytes(), new ByteArrayInputStream("Test".getBytes()))
+                .wrap(new ByteArrayOutputStream());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void requiresAtLeastOneRule() {
+        rules().wrap(new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void rulesDoNotShareTheCallersArrays() throws IOException {
+        byte[] before = "<meta/>".getBytes();
+        byte[] after = "<script/>".getBytes();
+        InjectionRules rules = rules().before("</head>".getBytes(), before).after("<body>".getBytes(), after);
+        before[1] = 'M';
+        after[1] = 'S';
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        fuzzyWrite(rules.wrap(rawOut), "<head></head><body></body>");
+        assertEquals("<head><meta/></head><body><script/></body>", new String(rawOut.toByteArray(), defaultCharset()));
+    }
+
+    @Test
+    public void fuzzingSeveralRules() throws IOException {
+        InjectionRules rules = rules()
+                .after("<head>", "A")
+                .before("</head>", "B")
+                .before("</body>", "C");
+
+        for (int i = 0; i < 10000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(rules.wrap(rawOut), PAGE);
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals("<html><head>A<title>t</title>B</head><body><p>hi</p>C</body></html>", finalOutput);
+        }
+    }
+
+    @Test
+    public void rulesEndingTogether() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(rules().before("b", "1").before("ab", "2").after("ab", "3").wrap(rawOut), "xaby");
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals("x2a1b3y", finalOutput);
+        }
+    }
+
+    @Test
+    public void firedRulesDoNotHideLongerDelimiters() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(rules().after("ab", "1").before("abc", "2").wrap(rawOut), "ab abc");
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals("ab1 2abc", finalOutput);
+        }
+    }
+
+    @Test
+    public void differentialAgainstStackedStreams() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 20000; i++) {
+            String first = randomString(random, 1 + random.nextInt(3));
+            String second = randomString(random, 1 + random.nextInt(3));
+            String content = randomString(random, 1 + random.nextInt(24));
+            // with disjoint alphabets the rules can never interfere with each other
+            second = second.replace('a', 'c').replace('b', 'd');
+            content = content + randomString(random, 1 + random.nextInt(8)).replace('a', 'c').replace('b', 'd');
+
+            ByteArrayOutputStream expected = new ByteArrayOutputStream();
+            try (OutputStream out = injectBeforeOutput(injectAfterOutput(expected, second, "2"), first, "1")) {
+                out.write(content.getBytes());
+            }
+
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(rules().before(first, "1").after(second, "2").wrap(rawOut), content);
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals(first + ", " + second + " in " + content, expected.toString(), finalOutput);
+        }
+    }
+}
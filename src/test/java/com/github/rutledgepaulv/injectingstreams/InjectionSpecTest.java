@@ -0,0 +1,531 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyWrite;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.randomString;
+import static java.nio.charset.Charset.defaultCharset;
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class InjectionSpecTest {
+
+    private static final InjectionSpec BEFORE = InjectionSpec.before("hello ", "world ");
+    private static final InjectionSpec AFTER = InjectionSpec.after("hello ", "world ");
+
+    @Test
+    public void constructors() {
+        InjectionSpec.before("Test", "Test");
+        InjectionSpec.before("Test", "Test".getBytes());
+        InjectionSpec.before("Test".getBytes(), "Test");
+        InjectionSpec.before("Test".getBytes(), "Test".getBytes());
+        InjectionSpec.after("Test", "Test");
+        InjectionSpec.after("Test", "Test".getBytes());
+        InjectionSpec.after("Test".getBytes(), "Test");
+        InjectionSpec.after("Test".getBytes(), "Test".getBytes());
+    }
+
+    @Test
+    public void encodesWithTheGivenCharset() throws IOException {
+        String body = "<p>\u00e9t\u00e9</p><p>\u00e9t\u00e9</p>";
+        assertEquals("<p>\u00e9t\u00e9<br/></p><p>\u00e9t\u00e9</p>", write(InjectionSpec.before("</p>", "<br/>", UTF_16BE), body));
+        assertEquals("<p>\u00e9t\u00e9</p><br/><p>\u00e9t\u00e9</p>", write(InjectionSpec.after("</p>", "<br/>", UTF_16BE), body));
+        assertEquals("<p>summer</p><p>\u00e9t\u00e9</p>", write(InjectionSpec.replace("\u00e9t\u00e9", "summer", UTF_16BE), body));
+        assertEquals("<p></p><p>\u00e9t\u00e9</p>", write(InjectionSpec.remove("\u00e9t\u00e9", UTF_16BE), body));
+    }
+
+    private static String write(InjectionSpec spec, String body) throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        try (OutputStream out = spec.wrap(rawOut)) {
+            out.write(body.getBytes(UTF_16BE));
+        }
+        return new String(rawOut.toByteArray(), UTF_16BE);
+    }
+
+    @Test
+    public void fuzzingSharedSpec() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(BEFORE.wrap(rawOut), "before hello after");
+            assertEquals("before world hello after", new String(rawOut.toByteArray(), defaultCharset()));
+
+            rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(AFTER.wrap(rawOut), "before hello after");
+            assertEquals("before hello world after", new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void specsDoNotShareTheCallersArrays() throws IOException {
+        byte[] injection = "world ".getBytes();
+        InjectionSpec spec = InjectionSpec.before("hello ".getBytes(), injection);
+        injection[0] = 'W';
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        fuzzyWrite(spec.wrap(rawOut), "before hello after");
+        assertEquals("before world hello after", new String(rawOut.toByteArray(), defaultCharset()));
+    }
+
+    @Test
+    public void pooledStreamsCanBeReset() throws IOException {
+        InjectingOutputStream pooled = BEFORE.wrap(new ByteArrayOutputStream());
+        for (int i = 0; i < 1000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            pooled.reset(rawOut);
+            assertFalse(pooled.isInjected());
+            fuzzyWrite(pooled, "before hello after");
+            assertTrue(pooled.isInjected());
+            assertEquals("before world hello after", new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void resettingDiscardsHeldBytes() throws IOException {
+        InjectingOutputStream pooled = BEFORE.wrap(new ByteArrayOutputStream());
+        pooled.write("before hel".getBytes());
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        pooled.reset(rawOut);
+        pooled.write("lo hello after".getBytes());
+        pooled.close();
+        assertEquals("lo world hello after", new String(rawOut.toByteArray(), defaultCharset()));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void oneShotInjectionsCannotBeReset() {
+        new PreDelimiterInjectingOutputStream(new ByteArrayOutputStream(), "hello ", new ByteArrayInputStream("world ".getBytes()))
+                .reset(new ByteArrayOutputStream());
+    }
+
+    @Test
+    public void wrapsInputStreams() throws IOException {
+        try (InputStream in = BEFORE.wrap(new ByteArrayInputStream("before hello after".getBytes()))) {
+            assertEquals("before world hello after", new String(in.readAllBytes(), defaultCharset()));
+        }
+        try (InputStream in = AFTER.wrap(new ByteArrayInputStream("before hello after".getBytes()))) {
+            assertEquals("before hello world after", new String(in.readAllBytes(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void fuzzingCoalesced() throws IOException {
+        for (CoalescingPolicy policy : CoalescingPolicy.values()) {
+            for (int size : new int[]{1, 3, 64}) {
+                InjectionSpec before = BEFORE.coalescing(size, policy);
+                InjectionSpec after = AFTER.coalescing(size, policy);
+                for (int i = 0; i < 2000; i++) {
+                    ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+                    fuzzyWrite(before.wrap(rawOut), "before hello after");
+                    assertEquals("before world hello after", new String(rawOut.toByteArray(), defaultCharset()));
+
+                    rawOut = new ByteArrayOutputStream();
+                    fuzzyWrite(after.wrap(rawOut), "before hello after");
+                    assertEquals("before hello world after", new String(rawOut.toByteArray(), defaultCharset()));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void coalescingMakesEachWriteOneDownstreamWrite() throws IOException {
+        CountingOutputStream sink = new CountingOutputStream();
+        try (OutputStream out = BEFORE.coalescing(1024, CoalescingPolicy.EACH_WRITE).wrap(sink)) {
+            out.write("before hel".getBytes());
+            assertEquals(1, sink.writes);
+            out.write("lo after".getBytes());
+            assertEquals(2, sink.writes);
+            out.write('!');
+            assertEquals(3, sink.writes);
+        }
+        assertEquals("before world hello after!", sink.toString());
+        assertEquals(3, sink.writes);
+    }
+
+    @Test
+    public void coalescingWhenFullDefersUntilFlush() throws IOException {
+        CountingOutputStream sink = new CountingOutputStream();
+        try (OutputStream out = BEFORE.coalescing(1024, CoalescingPolicy.WHEN_FULL).wrap(sink)) {
+            out.write("before hel".getBytes());
+            out.write("lo after".getBytes());
+            assertEquals(0, sink.writes);
+            out.flush();
+            assertEquals(1, sink.writes);
+            assertEquals(1, sink.flushes);
+            assertEquals("before world hello after", sink.toString());
+        }
+    }
+
+    @Test
+    public void coalescedStreamsCanBeReset() throws IOException {
+        InjectingOutputStream pooled = BEFORE.coalescing(16, CoalescingPolicy.WHEN_FULL).wrap(new ByteArrayOutputStream());
+        for (int i = 0; i < 100; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            pooled.reset(rawOut);
+            fuzzyWrite(pooled, "before hello after");
+            assertEquals("before world hello after", new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void scanLimitCountsTheWholeDelimiter() throws IOException {
+        // the delimiter ends with the 13th byte
+        for (int i = 0; i < 1000; i++) {
+            InjectingOutputStream before = BEFORE.scanLimit(13).wrap(new ByteArrayOutputStream());
+            fuzzyWrite(before, "before hello after");
+            assertTrue(before.isInjected());
+            assertFalse(before.isSkipped());
+
+            InjectingOutputStream after = AFTER.scanLimit(13).wrap(new ByteArrayOutputStream());
+            fuzzyWrite(after, "before hello after");
+            assertTrue(after.isInjected());
+            assertFalse(after.isSkipped());
+        }
+    }
+
+    @Test
+    public void scanLimitGivesUpAndPassesThrough() throws IOException {
+        int[] skips = new int[1];
+        InjectionSpec before = BEFORE.scanLimit(12, () -> skips[0]++);
+        InjectionSpec after = AFTER.scanLimit(12, () -> skips[0]++);
+        for (int i = 0; i < 1000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            InjectingOutputStream out = before.wrap(rawOut);
+            fuzzyWrite(out, "before hello after hello ");
+            assertEquals("before hello after hello ", new String(rawOut.toByteArray(), defaultCharset()));
+            assertFalse(out.isInjected());
+            assertTrue(out.isSkipped());
+
+            rawOut = new ByteArrayOutputStream();
+            out = after.wrap(rawOut);
+            fuzzyWrite(out, "before hello after hello ");
+            assertEquals("before hello after hello ", new String(rawOut.toByteArray(), defaultCharset()));
+            assertFalse(out.isInjected());
+            assertTrue(out.isSkipped());
+        }
+        assertEquals(2000, skips[0]);
+    }
+
+    @Test
+    public void scanLimitIsLiftedByAnOccurrenceThatIsNotInjected() throws IOException {
+        // the first occurrence ends with the 2nd byte, the second one well past the limit
+        String body = "a;bbbbbbbbbbbb;c;d";
+        for (int i = 0; i < 1000; i++) {
+            for (boolean before : new boolean[]{true, false}) {
+                InjectionSpec spec = before ? InjectionSpec.before(";", "|") : InjectionSpec.after(";", "|");
+                ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+                InjectingOutputStream out = spec.occurrences(Occurrences.nth(2)).scanLimit(5).wrap(rawOut);
+                fuzzyWrite(out, body);
+                assertEquals(before ? "a;bbbbbbbbbbbb|;c;d" : "a;bbbbbbbbbbbb;|c;d", new String(rawOut.toByteArray(), defaultCharset()));
+                assertTrue(out.isInjected());
+
+                rawOut = new ByteArrayOutputStream();
+                out = spec.occurrences(Occurrences.every(2)).scanLimit(5).wrap(rawOut);
+                fuzzyWrite(out, body);
+                assertEquals(before ? "a;bbbbbbbbbbbb|;c;d" : "a;bbbbbbbbbbbb;|c;d", new String(rawOut.toByteArray(), defaultCharset()));
+
+                // without an occurrence within the limit the stream still gives up
+                rawOut = new ByteArrayOutputStream();
+                out = spec.occurrences(Occurrences.nth(2)).scanLimit(5).wrap(rawOut);
+                fuzzyWrite(out, "bbbbbb;c;d");
+                assertEquals("bbbbbb;c;d", new String(rawOut.toByteArray(), defaultCharset()));
+                assertTrue(out.isSkipped());
+            }
+        }
+    }
+
+    @Test
+    public void skippedStreamsCanBeReset() throws IOException {
+        InjectingOutputStream pooled = BEFORE.scanLimit(8).wrap(new ByteArrayOutputStream());
+        fuzzyWrite(pooled, "a long preamble hello after");
+        assertTrue(pooled.isSkipped());
+
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        pooled.reset(rawOut);
+        assertFalse(pooled.isSkipped());
+        fuzzyWrite(pooled, "a hello after");
+        assertEquals("a world hello after", new String(rawOut.toByteArray(), defaultCharset()));
+        assertTrue(pooled.isInjected());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void scanLimitMustBePositive() {
+        BEFORE.scanLimit(0);
+    }
+
+    @Test
+    public void injectsAtEveryOccurrence() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.before("\n", "|").occurrences(Occurrences.all()).wrap(rawOut), "a\nb\nc\n");
+            assertEquals("a|\nb|\nc|\n", new String(rawOut.toByteArray(), defaultCharset()));
+
+            rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.after("\n", "|").occurrences(Occurrences.all()).wrap(rawOut), "a\nb\nc\n");
+            assertEquals("a\n|b\n|c\n|", new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void occurrencesNeverOverlap() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.before("aa", "|").occurrences(Occurrences.all()).wrap(rawOut), "aaaaa");
+            assertEquals("|aa|aaa", new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void injectsAtNthAndEveryKthOccurrence() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            InjectingOutputStream nth = InjectionSpec.after(",", "|").occurrences(Occurrences.nth(3)).wrap(rawOut);
+            fuzzyWrite(nth, "1,2,3,4,5,6,7,");
+            assertEquals("1,2,3,|4,5,6,7,", new String(rawOut.toByteArray(), defaultCharset()));
+            assertTrue(nth.isInjected());
+
+            rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.after(",", "|").occurrences(Occurrences.every(3)).wrap(rawOut), "1,2,3,4,5,6,7,");
+            assertEquals("1,2,3,|4,5,6,|7,", new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void differentialAgainstNaiveOccurrences() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 20000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(3));
+            String content = randomString(random, 1 + random.nextInt(40));
+            boolean before = random.nextBoolean();
+            Occurrences occurrences;
+            long first, period;
+            switch (random.nextInt(3)) {
+                case 0:
+                    occurrences = Occurrences.all();
+                    first = 1;
+                    period = 1;
+                    break;
+                case 1:
+                    first = 1 + random.nextInt(4);
+                    period = 0;
+                    occurrences = Occurrences.nth(first);
+                    break;
+                default:
+                    first = 1 + random.nextInt(4);
+                    period = first;
+                    occurrences = Occurrences.every(first);
+            }
+
+            StringBuilder expected = new StringBuilder();
+            long occurrence = 0;
+            int at = 0;
+            while (at < content.length()) {
+                if (content.startsWith(delimiter, at)) {
+                    occurrence++;
+                    boolean included = occurrence == first
+                            || (period > 0 && occurrence > first && (occurrence - first) % period == 0);
+                    if (included && before) {
+                        expected.append('|');
+                    }
+                    expected.append(delimiter);
+                    if (included && !before) {
+                        expected.append('|');
+                    }
+                    at += delimiter.length();
+                } else {
+                    expected.append(content.charAt(at++));
+                }
+            }
+
+            InjectionSpec spec = before ? InjectionSpec.before(delimiter, "|") : InjectionSpec.after(delimiter, "|");
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(spec.occurrences(occurrences).wrap(rawOut), content);
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals((before ? "before " : "after ") + delimiter + " in " + content, expected.toString(), finalOutput);
+        }
+    }
+
+    @Test
+    public void replacesEveryOccurrence() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 20000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(3));
+            String content = randomString(random, 1 + random.nextInt(40));
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.replace(delimiter, "|").occurrences(Occurrences.all()).wrap(rawOut), content);
+            assertEquals(delimiter + " in " + content, content.replace(delimiter, "|"), new String(rawOut.toByteArray(), defaultCharset()));
+
+            rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(InjectionSpec.remove(delimiter).occurrences(Occurrences.all()).wrap(rawOut), content);
+            assertEquals(delimiter + " in " + content, content.replace(delimiter, ""), new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void replayablePayloads() throws IOException {
+        int[] opened = new int[1];
+        InjectionSpec supplied = InjectionSpec.before(";", () -> {
+            opened[0]++;
+            return new ByteArrayInputStream("|".getBytes());
+        }).occurrences(Occurrences.all());
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        fuzzyWrite(supplied.wrap(rawOut), "a;b;c;");
+        assertEquals("a|;b|;c|;", new String(rawOut.toByteArray(), defaultCharset()));
+        assertEquals(3, opened[0]);
+
+        ByteBuffer buffer = ByteBuffer.wrap("x|y".getBytes());
+        buffer.position(1);
+        InjectionSpec buffered = InjectionSpec.after(";", buffer).occurrences(Occurrences.every(2));
+        rawOut = new ByteArrayOutputStream();
+        fuzzyWrite(buffered.wrap(rawOut), "a;b;c;d;");
+        assertEquals("a;b;|yc;d;|y", new String(rawOut.toByteArray(), defaultCharset()));
+        assertEquals(1, buffer.position());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void repeatingRequiresReplayablePayload() {
+        new PreDelimiterInjectingOutputStream(new ByteArrayOutputStream(), new DelimiterMatcher(";".getBytes()),
+                Injection.of(new ByteArrayInputStream("|".getBytes())), Options.DEFAULT.occurrences(Occurrences.all()));
+    }
+
+    @Test
+    public void scanLimitOnlyBoundsTheFirstOccurrence() throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        InjectingOutputStream out = InjectionSpec.after(";", "|").occurrences(Occurrences.all()).scanLimit(2).wrap(rawOut);
+        fuzzyWrite(out, "a;bbbbbbbb;c;");
+        assertEquals("a;|bbbbbbbb;|c;|", new String(rawOut.toByteArray(), defaultCharset()));
+        assertFalse(out.isSkipped());
+    }
+
+    @Test
+    public void streamsUpToTheDelimiterWhileTheInjectionIsPending() throws IOException {
+        CompletableFuture<byte[]> script = new CompletableFuture<>();
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        InjectingOutputStream out = InjectionSpec.before("</head>", script)
+                .awaitInjection(1024, Duration.ofSeconds(10)).wrap(rawOut);
+        out.write("<html><head><title/>".getBytes());
+        assertEquals("<html><head><title/>", new String(rawOut.toByteArray(), defaultCharset()));
+
+        // held back while pending, within the buffer
+        out.write("</head><body>".getBytes());
+        assertEquals("<html><head><title/>", new String(rawOut.toByteArray(), defaultCharset()));
+        assertTrue(out.isInjected());
+
+        script.complete("<script/>".getBytes());
+        out.write("</body>".getBytes());
+        assertEquals("<html><head><title/><script/></head><body></body>", new String(rawOut.toByteArray(), defaultCharset()));
+        out.close();
+    }
+
+    @Test
+    public void holdsBackNoMoreThanTheBufferWithinOneWrite() throws IOException {
+        CompletableFuture<byte[]> script = new CompletableFuture<>();
+        List<String> writes = new ArrayList<>();
+        OutputStream sink = new OutputStream() {
+            @Override
+            public void write(int b) {
+                writes.add(String.valueOf((char) b));
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) {
+                if (len > 0) {
+                    writes.add(new String(b, off, len, defaultCharset()));
+                }
+            }
+        };
+        InjectingOutputStream out = InjectionSpec.before("</head>", script)
+                .awaitInjection(16, Duration.ofMillis(50), "<!-- timed out -->".getBytes()).wrap(sink);
+        out.write("<head>".getBytes());
+        out.write("</head>abc".getBytes());
+        assertEquals(10, out.deferred());
+        assertEquals(Arrays.asList("<head>"), writes);
+
+        String body = "x".repeat(8 << 20);
+        out.write(body.getBytes());
+        assertEquals(0, out.deferred());
+        // the 16 bytes held back, then the rest of the write straight from the caller's array
+        assertEquals(Arrays.asList("<head>", "<!-- timed out -->", "</head>abc" + body.substring(0, 6), body.substring(6)), writes);
+        out.close();
+    }
+
+    @Test
+    public void waitsForThePendingInjection() throws Exception {
+        for (InjectionSpec spec : new InjectionSpec[]{
+                InjectionSpec.after(";", CompletableFuture.supplyAsync(() -> "|".getBytes(), delayed())),
+                InjectionSpec.after(";", CompletableFuture.supplyAsync(() -> "|".getBytes(), delayed())).awaitInjection(4, Duration.ofSeconds(10))}) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(spec.occurrences(Occurrences.all()).wrap(rawOut), "a;bbbbbbbbbbbb;c;");
+            assertEquals("a;|bbbbbbbbbbbb;|c;|", new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void fallsBackAfterTheTimeout() throws IOException {
+        InjectionSpec spec = InjectionSpec.replace(";", new CompletableFuture<>())
+                .occurrences(Occurrences.all())
+                .awaitInjection(4, Duration.ofMillis(20), "-".getBytes());
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        fuzzyWrite(spec.wrap(rawOut), "a;b;cccccccc;d");
+        assertEquals("a-b-cccccccc-d", new String(rawOut.toByteArray(), defaultCharset()));
+
+        rawOut = new ByteArrayOutputStream();
+        fuzzyWrite(spec.awaitInjection(0, Duration.ZERO).wrap(rawOut), "a;b");
+        assertEquals("ab", new String(rawOut.toByteArray(), defaultCharset()));
+    }
+
+    @Test(expected = IOException.class)
+    public void failsWhenTheInjectionFails() throws IOException {
+        CompletableFuture<byte[]> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("cache unavailable"));
+        fuzzyWrite(InjectionSpec.before(";", failed).wrap(new ByteArrayOutputStream()), "a;b");
+    }
+
+    @Test
+    public void readsThePendingInjectionLazily() throws IOException {
+        CompletableFuture<byte[]> script = new CompletableFuture<>();
+        InputStream in = InjectionSpec.before(";", script).wrap(new ByteArrayInputStream("a;b".getBytes()));
+        script.complete("|".getBytes());
+        assertEquals("a|;b", new String(in.readAllBytes(), defaultCharset()));
+    }
+
+    private static Executor delayed() {
+        return CompletableFuture.delayedExecutor(20, TimeUnit.MILLISECONDS);
+    }
+
+    private static final class CountingOutputStream extends ByteArrayOutputStream {
+        private int writes;
+        private int flushes;
+
+        @Override
+        public void write(int b) {
+            writes++;
+            super.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            writes++;
+            super.write(b, off, len);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+}
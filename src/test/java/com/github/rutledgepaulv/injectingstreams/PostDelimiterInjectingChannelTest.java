@@ -0,0 +1,91 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.injectAfterChannel;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyWrite;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.randomString;
+import static java.nio.charset.Charset.defaultCharset;
+import static org.junit.Assert.assertEquals;
+
+public class PostDelimiterInjectingChannelTest {
+
+    @Test
+    public void constructors() {
+        injectAfterChannel(sink(), "Test", "Test");
+        injectAfterChannel(sink(), "Test", "Test".getBytes());
+        injectAfterChannel(sink(), "Test", ByteBuffer.wrap("Test".getBytes()));
+        injectAfterChannel(sink(), "Test", Channels.newChannel(new ByteArrayInputStream("Test".getBytes())));
+        injectAfterChannel(sink(), "Test".getBytes(), "Test");
+        injectAfterChannel(sink(), "Test".getBytes(), "Test".getBytes());
+        injectAfterChannel(sink(), "Test".getBytes(), ByteBuffer.wrap("Test".getBytes()));
+        injectAfterChannel(sink(), "Test".getBytes(), Channels.newChannel(new ByteArrayInputStream("Test".getBytes())));
+
+        new PostDelimiterInjectingChannel(sink(), "Test", "Test".getBytes());
+        new PostDelimiterInjectingChannel(sink(), "Test".getBytes(), "Test");
+        new PostDelimiterInjectingChannel(sink(), "Test".getBytes(), "Test".getBytes());
+        new PostDelimiterInjectingChannel(sink(), "Test", ByteBuffer.wrap("Test".getBytes()));
+        new PostDelimiterInjectingChannel(sink(), "Test".getBytes(), ByteBuffer.wrap("Test".getBytes()));
+    }
+
+    @Test
+    public void fuzzing() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(new PostDelimiterInjectingChannel(Channels.newChannel(rawOut), "hello ", "world "), "before hello after");
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals("before hello world after", finalOutput);
+        }
+    }
+
+    @Test
+    public void differentialAgainstNaiveSearch() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 20000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(4));
+            String content = randomString(random, 1 + random.nextInt(40));
+            int index = content.indexOf(delimiter);
+            String expected = index < 0 ? content : content.substring(0, index + delimiter.length()) + "|" + content.substring(index + delimiter.length());
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(new PostDelimiterInjectingChannel(Channels.newChannel(rawOut), delimiter, "|"), content);
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals(delimiter + " in " + content, expected, finalOutput);
+        }
+    }
+
+    @Test
+    public void fileToFile() throws IOException {
+        Path injection = Files.createTempFile("injection", ".txt");
+        Path target = Files.createTempFile("target", ".txt");
+        try {
+            Files.write(injection, "world ".getBytes());
+            try (FileChannel source = FileChannel.open(injection, StandardOpenOption.READ);
+                 FileChannel sink = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 WritableByteChannel channel = new PostDelimiterInjectingChannel(sink, "hello ", source)) {
+                ByteBuffer direct = ByteBuffer.allocateDirect(64);
+                direct.put("before hello after".getBytes()).flip();
+                channel.write(direct);
+            }
+            assertEquals("before hello world after", new String(Files.readAllBytes(target), defaultCharset()));
+        } finally {
+            Files.delete(injection);
+            Files.delete(target);
+        }
+    }
+
+    private static WritableByteChannel sink() {
+        return Channels.newChannel(new ByteArrayOutputStream());
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.injectAfterInput;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyRead;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.randomString;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.trickle;
+import static java.nio.charset.Charset.defaultCharset;
+import static org.junit.Assert.assertEquals;
+
+public class PostDelimiterInjectingInputStreamTest {
+
+    @Test
+    public void constructors() {
+        injectAfterInput(new ByteArrayInputStream(new byte[0]), "Test", "Test");
+        injectAfterInput(new ByteArrayInputStream(new byte[0]), "Test", "Test".getBytes());
+        injectAfterInput(new ByteArrayInputStream(new byte[0]), "Test".getBytes(), "Test");
+        injectAfterInput(new ByteArrayInputStream(new byte[0]), "Test".getBytes(), "Test".getBytes());
+        injectAfterInput(new ByteArrayInputStream(new byte[0]), "Test", new ByteArrayInputStream("Test".getBytes()));
+        injectAfterInput(new ByteArrayInputStream(new byte[0]), "Test".getBytes(), new ByteArrayInputStream("Test".getBytes()));
+
+        new PostDelimiterInjectingInputStream(new ByteArrayInputStream(new byte[0]), "Test", "Test".getBytes());
+        new PostDelimiterInjectingInputStream(new ByteArrayInputStream(new byte[0]), "Test".getBytes(), "Test");
+        new PostDelimiterInjectingInputStream(new ByteArrayInputStream(new byte[0]), "Test".getBytes(), "Test".getBytes());
+        new PostDelimiterInjectingInputStream(new ByteArrayInputStream(new byte[0]), "Test", new ByteArrayInputStream("Test".getBytes()));
+        new PostDelimiterInjectingInputStream(new ByteArrayInputStream(new byte[0]), "Test".getBytes(), new ByteArrayInputStream("Test".getBytes()));
+    }
+
+    @Test
+    public void fuzzing() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            String finalOutput = fuzzyRead(new PostDelimiterInjectingInputStream(trickle("before hello after"), "hello ", "world "));
+            assertEquals("before hello world after", finalOutput);
+        }
+    }
+
+    @Test
+    public void transferToPassesTheTailThrough() throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        try (InputStream in = new PostDelimiterInjectingInputStream(new ByteArrayInputStream("before hello after".getBytes()), "hello ", "world ")) {
+            in.transferTo(rawOut);
+        }
+        assertEquals("before hello world after", new String(rawOut.toByteArray(), defaultCharset()));
+    }
+
+    @Test
+    public void differentialAgainstNaiveSearch() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 20000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(4));
+            String content = randomString(random, random.nextInt(24));
+            int index = content.indexOf(delimiter);
+            String expected = index < 0 ? content : content.substring(0, index + delimiter.length()) + "|" + content.substring(index + delimiter.length());
+            String finalOutput = fuzzyRead(new PostDelimiterInjectingInputStream(trickle(content), delimiter, "|"));
+            assertEquals(delimiter + " in " + content, expected, finalOutput);
+        }
+    }
+}
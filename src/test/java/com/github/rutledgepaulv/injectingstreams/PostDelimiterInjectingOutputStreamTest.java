@@ -6,14 +6,19 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
+import java.time.Duration;
 import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.concurrent.CompletableFuture;
 
 import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.injectAfterOutput;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyWrite;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.plant;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.randomString;
 import static java.nio.charset.Charset.defaultCharset;
+import static java.nio.charset.StandardCharsets.UTF_16BE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 public class PostDelimiterInjectingOutputStreamTest {
 
@@ -33,6 +38,28 @@ public class PostDelimiterInjectingOutputStreamTest {
         new PostDelimiterInjectingOutputStream(new ByteArrayOutputStream(), "Test".getBytes(), new ByteArrayInputStream("Test".getBytes()));
     }
 
+    @Test
+    public void encodesWithTheGivenCharset() throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        try (OutputStream out = injectAfterOutput(rawOut, "</body>", "<script/>", UTF_16BE)) {
+            out.write("<body>\u00e9t\u00e9</body>".getBytes(UTF_16BE));
+        }
+        assertEquals("<body>\u00e9t\u00e9</body><script/>", new String(rawOut.toByteArray(), UTF_16BE));
+    }
+
+    @Test
+    public void handsOverTheSinkOnceAPendingInjectionIsWritten() throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        CompletableFuture<byte[]> injection = new CompletableFuture<>();
+        InjectingOutputStream out = InjectionSpec.after("<body>", injection)
+                .awaitInjection(1024, Duration.ofSeconds(10)).wrap(rawOut);
+        out.write("<html><body></body>".getBytes());
+        assertNull(out.passthrough());
+        injection.complete("<script/>".getBytes());
+        assertSame(rawOut, out.passthrough());
+        assertEquals("<html><body><script/></body>", new String(rawOut.toByteArray(), defaultCharset()));
+    }
+
     @Test
     public void fuzzingSingleCharacterDelimiter() throws IOException {
 
@@ -57,30 +84,69 @@ public class PostDelimiterInjectingOutputStreamTest {
 
     }
 
-    public void fuzzyWrite(OutputStream stream, String content) throws IOException {
-        List<byte[]> parts = partitions(content);
-        String combined = parts.stream().map(String::new).reduce((s1, s2) -> s1 + s2).get();
-        assertEquals(content, combined);
-        try (OutputStream out = stream) {
-            for (byte[] bites : parts) {
-                if (bites.length == 1) {
-                    out.write(bites[0]);
-                } else {
-                    out.write(bites);
-                }
-            }
+    @Test
+    public void overlappingDelimiter() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(new PostDelimiterInjectingOutputStream(rawOut, "aab", " world"), "xaaab after");
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals("xaaab world after", finalOutput);
+        }
+    }
+
+    @Test
+    public void writesRespectOffset() throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        try (OutputStream out = new PostDelimiterInjectingOutputStream(rawOut, "hello ", "world ")) {
+            byte[] bytes = "xxxbefore hello afterxxx".getBytes();
+            out.write(bytes, 3, bytes.length - 6);
+        }
+        String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+        assertEquals("before hello world after", finalOutput);
+    }
+
+    @Test
+    public void differentialAgainstNaiveSearch() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 20000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(4));
+            String content = randomString(random, 1 + random.nextInt(24));
+            int index = content.indexOf(delimiter);
+            String expected = index < 0 ? content : content.substring(0, index + delimiter.length()) + "|" + content.substring(index + delimiter.length());
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(new PostDelimiterInjectingOutputStream(rawOut, delimiter, "|"), content);
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals(delimiter + " in " + content, expected, finalOutput);
+        }
+    }
+
+    @Test
+    public void differentialAgainstNaiveSearchOnLongWrites() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 5000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(4), "abcdefgh");
+            String content = randomString(random, 1 + random.nextInt(300), "abcdefgh");
+            int index = content.indexOf(delimiter);
+            String expected = index < 0 ? content : content.substring(0, index + delimiter.length()) + "|" + content.substring(index + delimiter.length());
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(new PostDelimiterInjectingOutputStream(rawOut, delimiter, "|"), content);
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals(delimiter + " in " + content, expected, finalOutput);
         }
     }
 
-    public List<byte[]> partitions(String content) {
+    @Test
+    public void differentialAgainstNaiveSearchWithLongDelimiters() throws IOException {
         Random random = new Random(System.nanoTime());
-        int offset = 0;
-        List<String> partitions = new ArrayList<>();
-        while (offset < content.length()) {
-            int length = Math.min(random.nextInt(content.length() - offset) + 1, content.length());
-            partitions.add(content.substring(offset, offset + length));
-            offset += length;
+        for (int i = 0; i < 5000; i++) {
+            String delimiter = randomString(random, 16 + random.nextInt(24));
+            String content = plant(random, delimiter, randomString(random, 1 + random.nextInt(300)));
+            int index = content.indexOf(delimiter);
+            String expected = index < 0 ? content : content.substring(0, index + delimiter.length()) + "|" + content.substring(index + delimiter.length());
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(new PostDelimiterInjectingOutputStream(rawOut, delimiter, "|"), content);
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals(delimiter + " in " + content, expected, finalOutput);
         }
-        return partitions.stream().map(String::getBytes).collect(Collectors.toList());
     }
 }
\ No newline at end of file
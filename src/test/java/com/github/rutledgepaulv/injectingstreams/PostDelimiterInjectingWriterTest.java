@@ -0,0 +1,71 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.injectAfterWriter;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyWrite;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.randomString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PostDelimiterInjectingWriterTest {
+
+    @Test
+    public void constructors() {
+        injectAfterWriter(new StringWriter(), "Test", "Test");
+        injectAfterWriter(new StringWriter(), "Test", new StringReader("Test"));
+        new PostDelimiterInjectingWriter(new StringWriter(), "Test", "Test");
+        new PostDelimiterInjectingWriter(new StringWriter(), "Test", new StringReader("Test"));
+    }
+
+    @Test
+    public void matchesCharsBeyondLatin1() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            StringWriter rawOut = new StringWriter();
+            InjectingWriter writer = new PostDelimiterInjectingWriter(rawOut, "</k\u00f6rper>", new StringReader("<script>\u20ac</script>"));
+            fuzzyWrite(new Random(), writer, "<k\u00f6rper>\u65e5\u672c</k\u00f6rper>");
+            assertTrue(writer.isInjected());
+            assertEquals("<k\u00f6rper>\u65e5\u672c</k\u00f6rper>".replace("</k\u00f6rper>", "</k\u00f6rper><script>\u20ac</script>"), rawOut.toString());
+        }
+    }
+
+    @Test
+    public void shortFirstWritesDoNotSplitLaterOnes() throws IOException {
+        int[] writes = new int[1];
+        Writer counting = new FilterWriter(new StringWriter()) {
+            @Override
+            public void write(char[] cbuf, int off, int len) throws IOException {
+                writes[0]++;
+                super.write(cbuf, off, len);
+            }
+        };
+        try (Writer out = injectAfterWriter(counting, "</body>", "<script/>")) {
+            out.write("<a>", 0, 3);
+            writes[0] = 0;
+            out.write("x".repeat(1000), 0, 1000);
+            assertEquals(1, writes[0]);
+        }
+    }
+
+    @Test
+    public void differentialAgainstString() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 10000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(4), "a\u00e4");
+            String content = randomString(random, random.nextInt(30), "a\u00e4");
+            String expected = content.replaceFirst(Pattern.quote(delimiter), Matcher.quoteReplacement(delimiter + "|"));
+            StringWriter rawOut = new StringWriter();
+            fuzzyWrite(random, injectAfterWriter(rawOut, delimiter, "|"), content);
+            assertEquals(delimiter + " in " + content, expected, rawOut.toString());
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.injectBeforeChannel;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyWrite;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.randomString;
+import static java.nio.charset.Charset.defaultCharset;
+import static java.nio.charset.StandardCharsets.UTF_16BE;
+import static org.junit.Assert.assertEquals;
+
+public class PreDelimiterInjectingChannelTest {
+
+    @Test
+    public void constructors() {
+        injectBeforeChannel(sink(), "Test", "Test");
+        injectBeforeChannel(sink(), "Test", "Test".getBytes());
+        injectBeforeChannel(sink(), "Test", ByteBuffer.wrap("Test".getBytes()));
+        injectBeforeChannel(sink(), "Test", Channels.newChannel(new ByteArrayInputStream("Test".getBytes())));
+        injectBeforeChannel(sink(), "Test".getBytes(), "Test");
+        injectBeforeChannel(sink(), "Test".getBytes(), "Test".getBytes());
+        injectBeforeChannel(sink(), "Test".getBytes(), ByteBuffer.wrap("Test".getBytes()));
+        injectBeforeChannel(sink(), "Test".getBytes(), Channels.newChannel(new ByteArrayInputStream("Test".getBytes())));
+
+        new PreDelimiterInjectingChannel(sink(), "Test", "Test".getBytes());
+        new PreDelimiterInjectingChannel(sink(), "Test".getBytes(), "Test");
+        new PreDelimiterInjectingChannel(sink(), "Test".getBytes(), "Test".getBytes());
+        new PreDelimiterInjectingChannel(sink(), "Test", ByteBuffer.wrap("Test".getBytes()));
+        new PreDelimiterInjectingChannel(sink(), "Test".getBytes(), ByteBuffer.wrap("Test".getBytes()));
+    }
+
+    @Test
+    public void fuzzing() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(new PreDelimiterInjectingChannel(Channels.newChannel(rawOut), "hello ", "world "), "before hello after");
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals("before world hello after", finalOutput);
+        }
+    }
+
+    @Test
+    public void differentialAgainstNaiveSearch() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 20000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(4));
+            String content = randomString(random, 1 + random.nextInt(40));
+            int index = content.indexOf(delimiter);
+            String expected = index < 0 ? content : content.substring(0, index) + "|" + content.substring(index);
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(new PreDelimiterInjectingChannel(Channels.newChannel(rawOut), delimiter, "|"), content);
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals(delimiter + " in " + content, expected, finalOutput);
+        }
+    }
+
+    @Test
+    public void fileToFile() throws IOException {
+        Path injection = Files.createTempFile("injection", ".txt");
+        Path target = Files.createTempFile("target", ".txt");
+        try {
+            Files.write(injection, "world ".getBytes());
+            try (FileChannel source = FileChannel.open(injection, StandardOpenOption.READ);
+                 FileChannel sink = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+                 WritableByteChannel channel = new PreDelimiterInjectingChannel(sink, "hello ", source)) {
+                ByteBuffer direct = ByteBuffer.allocateDirect(64);
+                direct.put("before hello after".getBytes()).flip();
+                channel.write(direct);
+            }
+            assertEquals("before world hello after", new String(Files.readAllBytes(target), defaultCharset()));
+        } finally {
+            Files.delete(injection);
+            Files.delete(target);
+        }
+    }
+
+    @Test
+    public void transfersTheRemainderOfAFile() throws IOException {
+        Path source = Files.createTempFile("source", ".txt");
+        Path target = Files.createTempFile("target", ".txt");
+        try {
+            String content = "x".repeat(20000) + "hello " + "y".repeat(100000);
+            Files.write(source, content.getBytes());
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+                 WritableByteChannel out = injectBeforeChannel(FileChannel.open(target, StandardOpenOption.WRITE), "hello ", "world ")) {
+                in.position(5);
+                assertEquals(content.length() - 5, InjectingStreams.transfer(in, out));
+                assertEquals(content.length(), in.position());
+            }
+            assertEquals(content.substring(5).replace("hello ", "world hello "), new String(Files.readAllBytes(target), defaultCharset()));
+
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            try (WritableByteChannel out = injectBeforeChannel(Channels.newChannel(rawOut), "hello ", "world ")) {
+                InjectingStreams.transfer(Channels.newChannel(new ByteArrayInputStream(content.getBytes())), out);
+            }
+            assertEquals(content.replace("hello ", "world hello "), new String(rawOut.toByteArray(), defaultCharset()));
+        } finally {
+            Files.delete(source);
+            Files.delete(target);
+        }
+    }
+
+    @Test
+    public void stopsWhereATruncatedFileEnds() throws IOException {
+        Path source = Files.createTempFile("source", ".txt");
+        try {
+            String content = "x".repeat(20000) + "hello " + "y".repeat(100000);
+            Files.write(source, content.getBytes());
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                // shrinks the file halfway through the final transferTo, which then runs out early
+                WritableByteChannel truncating = new WritableByteChannel() {
+                    private final WritableByteChannel target = Channels.newChannel(rawOut);
+
+                    @Override
+                    public int write(ByteBuffer src) throws IOException {
+                        if (rawOut.size() > 30000 && in.size() > 50000) {
+                            in.truncate(50000);
+                        }
+                        return target.write(src);
+                    }
+
+                    @Override
+                    public boolean isOpen() {
+                        return true;
+                    }
+
+                    @Override
+                    public void close() {
+                    }
+                };
+                WritableByteChannel out = injectBeforeChannel(truncating, "hello ", "world ");
+                assertEquals(50000, InjectingStreams.transfer(in, out));
+                assertEquals(50000, in.position());
+            }
+            assertEquals(content.substring(0, 50000).replace("hello ", "world hello "), new String(rawOut.toByteArray(), defaultCharset()));
+        } finally {
+            Files.delete(source);
+        }
+    }
+
+    @Test
+    public void encodesWithTheGivenCharset() throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        try (WritableByteChannel out = injectBeforeChannel(Channels.newChannel(rawOut), "</body>", "<script/>", UTF_16BE)) {
+            out.write(ByteBuffer.wrap("<body>\u00e9t\u00e9</body>".getBytes(UTF_16BE)));
+        }
+        assertEquals("<body>\u00e9t\u00e9<script/></body>", new String(rawOut.toByteArray(), UTF_16BE));
+    }
+
+    private static WritableByteChannel sink() {
+        return Channels.newChannel(new ByteArrayOutputStream());
+    }
+}
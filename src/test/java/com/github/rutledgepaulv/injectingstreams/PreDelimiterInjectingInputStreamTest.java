@@ -0,0 +1,90 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.injectBeforeInput;
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.removeInput;
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.replaceInput;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyRead;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.randomString;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.trickle;
+import static java.nio.charset.Charset.defaultCharset;
+import static org.junit.Assert.assertEquals;
+
+public class PreDelimiterInjectingInputStreamTest {
+
+    @Test
+    public void constructors() {
+        injectBeforeInput(new ByteArrayInputStream(new byte[0]), "Test", "Test");
+        injectBeforeInput(new ByteArrayInputStream(new byte[0]), "Test", "Test".getBytes());
+        injectBeforeInput(new ByteArrayInputStream(new byte[0]), "Test".getBytes(), "Test");
+        injectBeforeInput(new ByteArrayInputStream(new byte[0]), "Test".getBytes(), "Test".getBytes());
+        injectBeforeInput(new ByteArrayInputStream(new byte[0]), "Test", new ByteArrayInputStream("Test".getBytes()));
+        injectBeforeInput(new ByteArrayInputStream(new byte[0]), "Test".getBytes(), new ByteArrayInputStream("Test".getBytes()));
+
+        new PreDelimiterInjectingInputStream(new ByteArrayInputStream(new byte[0]), "Test", "Test".getBytes());
+        new PreDelimiterInjectingInputStream(new ByteArrayInputStream(new byte[0]), "Test".getBytes(), "Test");
+        new PreDelimiterInjectingInputStream(new ByteArrayInputStream(new byte[0]), "Test".getBytes(), "Test".getBytes());
+        new PreDelimiterInjectingInputStream(new ByteArrayInputStream(new byte[0]), "Test", new ByteArrayInputStream("Test".getBytes()));
+        new PreDelimiterInjectingInputStream(new ByteArrayInputStream(new byte[0]), "Test".getBytes(), new ByteArrayInputStream("Test".getBytes()));
+    }
+
+    @Test
+    public void fuzzing() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            String finalOutput = fuzzyRead(new PreDelimiterInjectingInputStream(trickle("before hello after"), "hello ", "world "));
+            assertEquals("before world hello after", finalOutput);
+        }
+    }
+
+    @Test
+    public void transferToPassesTheTailThrough() throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        try (InputStream in = new PreDelimiterInjectingInputStream(new ByteArrayInputStream("before hello after".getBytes()), "hello ", "world ")) {
+            in.transferTo(rawOut);
+        }
+        assertEquals("before world hello after", new String(rawOut.toByteArray(), defaultCharset()));
+    }
+
+    @Test
+    public void differentialAgainstNaiveSearch() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 20000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(4));
+            String content = randomString(random, random.nextInt(24));
+            int index = content.indexOf(delimiter);
+            String expected = index < 0 ? content : content.substring(0, index) + "|" + content.substring(index);
+            String finalOutput = fuzzyRead(new PreDelimiterInjectingInputStream(trickle(content), delimiter, "|"));
+            assertEquals(delimiter + " in " + content, expected, finalOutput);
+        }
+    }
+
+    @Test
+    public void replacesTheDelimiter() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            String finalOutput = fuzzyRead(replaceInput(trickle("before hello after hello "), "hello ", "world "));
+            assertEquals("before world after hello ", finalOutput);
+            finalOutput = fuzzyRead(removeInput(trickle("before hello after hello "), "hello "));
+            assertEquals("before after hello ", finalOutput);
+        }
+    }
+
+    @Test
+    public void replaceDifferentialAgainstString() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 20000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(4));
+            String content = randomString(random, random.nextInt(24));
+            String expected = content.replaceFirst(Pattern.quote(delimiter), "|");
+            String finalOutput = fuzzyRead(replaceInput(trickle(content), delimiter, "|"));
+            assertEquals(delimiter + " in " + content, expected, finalOutput);
+        }
+    }
+}
@@ -5,16 +5,23 @@ import org.junit.Test;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.regex.Pattern;
 
-import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.injectAfterOutput;
 import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.injectBeforeOutput;
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.removeOutput;
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.replaceOutput;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyWrite;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.plant;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.randomString;
 import static java.nio.charset.Charset.defaultCharset;
+import static java.nio.charset.StandardCharsets.UTF_16BE;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 
 public class PreDelimiterInjectingOutputStreamTest {
 
@@ -34,6 +41,50 @@ public class PreDelimiterInjectingOutputStreamTest {
         new PreDelimiterInjectingOutputStream(new ByteArrayOutputStream(), "Test".getBytes(), new ByteArrayInputStream("Test".getBytes()));
     }
 
+    @Test
+    public void encodesWithTheGivenCharset() throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        try (OutputStream out = injectBeforeOutput(rawOut, "</body>", "<script/>", UTF_16BE)) {
+            out.write("<body>\u00e9t\u00e9</body>".getBytes(UTF_16BE));
+        }
+        assertEquals("<body>\u00e9t\u00e9<script/></body>", new String(rawOut.toByteArray(), UTF_16BE));
+    }
+
+    @Test
+    public void handsOverTheSinkOnceInjected() throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        InjectingOutputStream out = InjectionSpec.before("</body>", "<script/>")
+                .coalescing(64, CoalescingPolicy.WHEN_FULL).wrap(rawOut);
+        out.write("<html><body>".getBytes());
+        assertNull(out.passthrough());
+        out.write("</body>".getBytes());
+        OutputStream sink = out.passthrough();
+        assertSame(rawOut, sink);
+        assertEquals("<html><body><script/></body>", new String(rawOut.toByteArray(), defaultCharset()));
+        sink.write("</html>".getBytes());
+        assertEquals("<html><body><script/></body></html>", new String(rawOut.toByteArray(), defaultCharset()));
+    }
+
+    @Test
+    public void transfersTheRemainderToTheSink() throws IOException {
+        String content = "x".repeat(20000) + "hello " + "y".repeat(100000);
+        boolean[] handedOver = new boolean[1];
+        InputStream in = new ByteArrayInputStream(content.getBytes()) {
+            @Override
+            public long transferTo(OutputStream out) throws IOException {
+                handedOver[0] = true;
+                assertSame(ByteArrayOutputStream.class, out.getClass());
+                return super.transferTo(out);
+            }
+        };
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        try (OutputStream out = injectBeforeOutput(rawOut, "hello ", "world ")) {
+            assertEquals(content.length(), InjectingStreams.transfer(in, out));
+        }
+        assertTrue(handedOver[0]);
+        assertEquals(content.replace("hello ", "world hello "), new String(rawOut.toByteArray(), defaultCharset()));
+    }
+
     @Test
     public void testExceptionalBranch() throws IOException {
         ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
@@ -115,30 +166,96 @@ public class PreDelimiterInjectingOutputStreamTest {
 
     }
 
-    public void fuzzyWrite(OutputStream stream, String content) throws IOException {
-        List<byte[]> parts = partitions(content);
-        String combined = parts.stream().map(String::new).reduce((s1, s2) -> s1 + s2).get();
-        assertEquals(content, combined);
-        try (OutputStream out = stream) {
-            for (byte[] bites : parts) {
-                if (bites.length == 1) {
-                    out.write(bites[0]);
-                } else {
-                    out.write(bites);
-                }
-            }
+    @Test
+    public void overlappingDelimiter() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(new PreDelimiterInjectingOutputStream(rawOut, "aab", "world "), "xaaab after");
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals("xaworld aab after", finalOutput);
+        }
+    }
+
+    @Test
+    public void writesRespectOffset() throws IOException {
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        try (OutputStream out = new PreDelimiterInjectingOutputStream(rawOut, "hello ", "world ")) {
+            byte[] bytes = "xxxbefore hello afterxxx".getBytes();
+            out.write(bytes, 3, bytes.length - 6);
         }
+        String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+        assertEquals("before world hello after", finalOutput);
     }
 
-    public List<byte[]> partitions(String content) {
+    @Test
+    public void differentialAgainstNaiveSearch() throws IOException {
         Random random = new Random(System.nanoTime());
-        int offset = 0;
-        List<String> partitions = new ArrayList<>();
-        while (offset < content.length()) {
-            int length = Math.min(random.nextInt(content.length() - offset) + 1, content.length());
-            partitions.add(content.substring(offset, offset + length));
-            offset += length;
-        }
-        return partitions.stream().map(String::getBytes).collect(Collectors.toList());
+        for (int i = 0; i < 20000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(4));
+            String content = randomString(random, 1 + random.nextInt(24));
+            int index = content.indexOf(delimiter);
+            String expected = index < 0 ? content : content.substring(0, index) + "|" + content.substring(index);
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(new PreDelimiterInjectingOutputStream(rawOut, delimiter, "|"), content);
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals(delimiter + " in " + content, expected, finalOutput);
+        }
+    }
+
+    @Test
+    public void differentialAgainstNaiveSearchOnLongWrites() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 5000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(4), "abcdefgh");
+            String content = randomString(random, 1 + random.nextInt(300), "abcdefgh");
+            int index = content.indexOf(delimiter);
+            String expected = index < 0 ? content : content.substring(0, index) + "|" + content.substring(index);
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(new PreDelimiterInjectingOutputStream(rawOut, delimiter, "|"), content);
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals(delimiter + " in " + content, expected, finalOutput);
+        }
+    }
+
+    @Test
+    public void replacesTheDelimiter() throws IOException {
+        for (int i = 0; i < 10000; i++) {
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(replaceOutput(rawOut, "hello ", "world "), "before hello after hello ");
+            assertEquals("before world after hello ", new String(rawOut.toByteArray(), defaultCharset()));
+
+            rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(removeOutput(rawOut, "hello "), "before hello after hello ");
+            assertEquals("before after hello ", new String(rawOut.toByteArray(), defaultCharset()));
+        }
+    }
+
+    @Test
+    public void replaceDifferentialAgainstString() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 20000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(4));
+            String content = randomString(random, 1 + random.nextInt(24));
+            String expected = content.replaceFirst(Pattern.quote(delimiter), "|");
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(replaceOutput(rawOut, delimiter, "|"), content);
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals(delimiter + " in " + content, expected, finalOutput);
+        }
+    }
+
+    @Test
+    public void differentialAgainstNaiveSearchWithLongDelimiters() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 5000; i++) {
+            String delimiter = randomString(random, 16 + random.nextInt(24));
+            String content = plant(random, delimiter, randomString(random, 1 + random.nextInt(300)));
+            int index = content.indexOf(delimiter);
+            String expected = index < 0 ? content : content.substring(0, index) + "|" + content.substring(index);
+            ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+            fuzzyWrite(new PreDelimiterInjectingOutputStream(rawOut, delimiter, "|"), content);
+            String finalOutput = new String(rawOut.toByteArray(), defaultCharset());
+            assertEquals(delimiter + " in " + content, expected, finalOutput);
+        }
     }
 }
\ No newline at end of file
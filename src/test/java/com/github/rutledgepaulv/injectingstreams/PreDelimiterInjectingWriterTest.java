@@ -0,0 +1,51 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.github.rutledgepaulv.injectingstreams.InjectingStreams.injectBeforeWriter;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.fuzzyWrite;
+import static com.github.rutledgepaulv.injectingstreams.TestStreams.randomString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PreDelimiterInjectingWriterTest {
+
+    @Test
+    public void constructors() {
+        injectBeforeWriter(new StringWriter(), "Test", "Test");
+        injectBeforeWriter(new StringWriter(), "Test", new StringReader("Test"));
+        new PreDelimiterInjectingWriter(new StringWriter(), "Test", "Test");
+        new PreDelimiterInjectingWriter(new StringWriter(), "Test", new StringReader("Test"));
+    }
+
+    @Test
+    public void matchesCharsBeyondLatin1() throws IOException {
+        for (int i = 0; i < 1000; i++) {
+            StringWriter rawOut = new StringWriter();
+            InjectingWriter writer = new PreDelimiterInjectingWriter(rawOut, "</k\u00f6rper>", new StringReader("<script>\u20ac</script>"));
+            fuzzyWrite(new Random(), writer, "<k\u00f6rper>\u65e5\u672c</k\u00f6rper>");
+            assertTrue(writer.isInjected());
+            assertEquals("<k\u00f6rper>\u65e5\u672c</k\u00f6rper>".replace("</k\u00f6rper>", "<script>\u20ac</script></k\u00f6rper>"), rawOut.toString());
+        }
+    }
+
+    @Test
+    public void differentialAgainstString() throws IOException {
+        Random random = new Random(System.nanoTime());
+        for (int i = 0; i < 10000; i++) {
+            String delimiter = randomString(random, 1 + random.nextInt(4), "a\u00e4");
+            String content = randomString(random, random.nextInt(30), "a\u00e4");
+            String expected = content.replaceFirst(Pattern.quote(delimiter), Matcher.quoteReplacement("|" + delimiter));
+            StringWriter rawOut = new StringWriter();
+            fuzzyWrite(random, injectBeforeWriter(rawOut, delimiter, "|"), content);
+            assertEquals(delimiter + " in " + content, expected, rawOut.toString());
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package com.github.rutledgepaulv.injectingstreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import static java.nio.charset.Charset.defaultCharset;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Random content and the ways of writing and reading it in random pieces that the tests share.
+ */
+final class TestStreams {
+
+    private TestStreams() {
+    }
+
+    static String randomString(Random random, int length) {
+        return randomString(random, length, "ab");
+    }
+
+    static String randomString(Random random, int length, String alphabet) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Overwrites a random part of the content with the delimiter, or a prefix of it, since long
+     * delimiters practically never occur by chance.
+     */
+    static String plant(Random random, String delimiter, String content) {
+        String part = delimiter.substring(0, random.nextBoolean() ? delimiter.length() : random.nextInt(delimiter.length()));
+        int at = random.nextInt(content.length() + 1);
+        String planted = content.substring(0, at) + part;
+        return planted + content.substring(Math.min(planted.length(), content.length()));
+    }
+
+    static void fuzzyWrite(OutputStream stream, String content) throws IOException {
+        List<byte[]> parts = partitions(content);
+        String combined = parts.stream().map(String::new).reduce("", (s1, s2) -> s1 + s2);
+        assertEquals(content, combined);
+        try (OutputStream out = stream) {
+            for (byte[] bites : parts) {
+                if (bites.length == 1) {
+                    out.write(bites[0]);
+                } else {
+                    out.write(bites);
+                }
+            }
+        }
+    }
+
+    static List<byte[]> partitions(String content) {
+        Random random = new Random(System.nanoTime());
+        int offset = 0;
+        List<String> partitions = new ArrayList<>();
+        while (offset < content.length()) {
+            int length = Math.min(random.nextInt(content.length() - offset) + 1, content.length());
+            partitions.add(content.substring(offset, offset + length));
+            offset += length;
+        }
+        return partitions.stream().map(String::getBytes).collect(Collectors.toList());
+    }
+
+    /**
+     * Writes the content in random pieces, each one in a randomly chosen kind of buffer.
+     */
+    static void fuzzyWrite(WritableByteChannel channel, String content) throws IOException {
+        Random random = new Random(System.nanoTime());
+        byte[] bytes = content.getBytes();
+        try (WritableByteChannel out = channel) {
+            int offset = 0;
+            while (offset < bytes.length) {
+                int length = random.nextInt(bytes.length - offset) + 1;
+                ByteBuffer buffer;
+                switch (random.nextInt(3)) {
+                    case 0:
+                        buffer = ByteBuffer.wrap(bytes, offset, length);
+                        break;
+                    case 1:
+                        buffer = ByteBuffer.allocateDirect(length + 3).order(ByteOrder.LITTLE_ENDIAN);
+                        buffer.position(3);
+                        buffer.put(bytes, offset, length).flip().position(3);
+                        break;
+                    default:
+                        buffer = ByteBuffer.allocateDirect(length);
+                        buffer.put(bytes, offset, length).flip();
+                        break;
+                }
+                assertEquals(length, out.write(buffer));
+                assertEquals(0, buffer.remaining());
+                offset += length;
+            }
+        }
+    }
+
+    /**
+     * Writes the content in random pieces, as single chars, char arrays or strings.
+     */
+    static void fuzzyWrite(Random random, Writer writer, String content) throws IOException {
+        try (Writer out = writer) {
+            int offset = 0;
+            while (offset < content.length()) {
+                int length = 1 + random.nextInt(content.length() - offset);
+                switch (random.nextInt(3)) {
+                    case 0:
+                        for (int j = offset; j < offset + length; j++) {
+                            out.write(content.charAt(j));
+                        }
+                        break;
+                    case 1:
+                        out.write(content.toCharArray(), offset, length);
+                        break;
+                    default:
+                        out.write(content, offset, length);
+                }
+                offset += length;
+            }
+        }
+    }
+
+    /**
+     * A source that hands out a random number of bytes on every read.
+     */
+    static InputStream trickle(String content) {
+        Random random = new Random(System.nanoTime());
+        return new ByteArrayInputStream(content.getBytes()) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1 + random.nextInt(8)));
+            }
+        };
+    }
+
+    /**
+     * Reads the stream to the end with a random mix of single byte reads, buffer reads of
+     * random sizes at random offsets and a final transfer.
+     */
+    static String fuzzyRead(InputStream stream) throws IOException {
+        Random random = new Random(System.nanoTime());
+        ByteArrayOutputStream rawOut = new ByteArrayOutputStream();
+        try (InputStream in = stream) {
+            while (true) {
+                int choice = random.nextInt(10);
+                if (choice == 0) {
+                    in.transferTo(rawOut);
+                    break;
+                } else if (choice < 4) {
+                    int b = in.read();
+                    if (b < 0) {
+                        break;
+                    }
+                    rawOut.write(b);
+                } else {
+                    byte[] buffer = new byte[2 + random.nextInt(12)];
+                    int off = random.nextInt(2);
+                    int n = in.read(buffer, off, 1 + random.nextInt(buffer.length - off));
+                    if (n < 0) {
+                        break;
+                    }
+                    rawOut.write(buffer, off, n);
+                }
+            }
+        }
+        return new String(rawOut.toByteArray(), defaultCharset());
+    }
+}